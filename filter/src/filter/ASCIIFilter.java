@@ -1,19 +1,83 @@
 package filter;
 
 import java.io.*;
-import java.util.regex.*;
 import java.util.*;
 
-import filter.tools.ExportFormatProcessor;
 import filter.tools.ExportMode;
+import filter.tools.SentencePair;
+import filter.tools.Utf8;
 /** Implementation of the ASCII filter.
  * 
  * @author Adam Liska
  *
  */
-public class ASCIIFilter {
+public class ASCIIFilter implements Filter {
+	
+	/** Non-ASCII characters of the English sentence that need not occur in the Czech sentence. */
+	public static final String ALLOWED_CHARACTERS = "“”´—–€‐‘‑";
+	
+	static final int[] NONE = new int[0];
 	
 	String errorSign = "ErRoR_asciiFilter";
+	BitSet allowed;
+	
+	/** Initializes the filter with the default allowed characters.
+	 * 
+	 */
+	public ASCIIFilter() {
+		setAllowedCharacters(ALLOWED_CHARACTERS);
+	}
+	
+	public String getName() {
+		return "ascii";
+	}
+	
+	public String getErrorSign() {
+		return errorSign;
+	}
+	
+	public ExportMode getMode() {
+		return ExportMode.PLAIN;
+	}
+	
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
+	/** Reads the allowed characters if they are given.
+	 * 
+	 * @param args Filter options: -a allowed_characters; optional. Non-ASCII characters of the English sentence 
+	 * that need not occur in the Czech sentence, by default typographic quotes, dashes and the euro sign.
+	 */
+	public boolean configure(String[] args) {
+		if ((args.length == 2) && args[0].equals("-a")) {
+			setAllowedCharacters(args[1]);
+			return true;
+		}
+		return args.length == 0;
+	}
+	
+	/** Sets the non-ASCII characters of the English sentence that need not occur in the Czech sentence.
+	 * 
+	 * @param characters Allowed characters
+	 */
+	public void setAllowedCharacters(String characters) {
+		BitSet allowed = new BitSet();
+		for (int i = 0; i < characters.length(); i = characters.offsetByCodePoints(i, 1)) {
+			allowed.set(characters.codePointAt(i));
+		}
+		this.allowed = allowed;
+	}
+	
+	/** Checks a batch of sentence pairs. Pairs with an ASCII English sentence are accepted without decoding them.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result) {
+		for (int i = 0; i < count; i++) {
+			result[i] = pairs[i].isSourceAscii() || checkAlignment(pairs[i].getSource(ExportMode.PLAIN), pairs[i].getTarget(ExportMode.PLAIN));
+		}
+		return count;
+	}
 	
 	/** Checks whether the sentence pair conforms to the ASCII rule. 
 	 * 
@@ -21,35 +85,83 @@ public class ASCIIFilter {
 	 * @return True for a conforming pair, false otherwise.
 	 */
 	public boolean checkAlignment(String line) {
-		boolean isCorrect = true;
 		String[] sentences = line.split("\\t");
-		String eng = sentences[0];
-		String cs = sentences[1];
+		return checkAlignment(sentences[0], sentences[1]);
+	}
+	
+	/** Checks whether the sentence pair conforms to the ASCII rule: every non-ASCII character 
+	 * of the English sentence, except the allowed ones, has to occur in the Czech sentence. 
+	 * 
+	 * @param eng English sentence
+	 * @param cs Czech (or other language) sentence
+	 * @return True for a conforming pair, false otherwise.
+	 */
+	public boolean checkAlignment(String eng, String cs) {
+		int[] required = nonAsciiCodePoints(eng, allowed);
+		if (required.length == 0) {
+			return true;
+		}
 		
-		if (!eng.matches("[\\p{ASCII}]*")) { 
-			
-			Pattern p = Pattern.compile("[^\\p{ASCII}“”´´``—–€‐‘‑‑]");
-			Matcher m = p.matcher(eng);
-			LinkedList<String> chars = new LinkedList<String>();
-			while (m.find()) {
-				chars.add(m.group());
+		int[] present = nonAsciiCodePoints(cs, null);
+		for (int codePoint:required) {
+			if (Arrays.binarySearch(present, codePoint) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Returns the distinct non-ASCII code points of a sentence.
+	 * 
+	 * @param sentence Sentence
+	 * @param skipped Code points left out, null for none.
+	 * @return Sorted code points
+	 */
+	static int[] nonAsciiCodePoints(String sentence, BitSet skipped) {
+		int[] codePoints = null;
+		int count = 0;
+		int length = sentence.length();
+		for (int i = 0; i < length; i++) {
+			int codePoint = sentence.charAt(i);
+			if (codePoint < 128) {
+				continue;
 			}
-			
-			boolean containsAll = true;
-			for(String character:chars) {
-				if (!cs.contains(character)) {
-					containsAll = false;
-					break;
+			if (Character.isHighSurrogate((char) codePoint)) {
+				codePoint = sentence.codePointAt(i);
+				if (Character.isSupplementaryCodePoint(codePoint)) {
+					i++;
 				}
 			}
-
-			if (!containsAll) {
-				isCorrect = false;
+			if ((skipped != null) && skipped.get(codePoint)) {
+				continue;
+			}
+			if (codePoints == null) {
+				codePoints = new int[16];
+			} else if (count == codePoints.length) {
+				codePoints = Arrays.copyOf(codePoints, 2 * count);
 			}
-			 
+			codePoints[count++] = codePoint;
+		}
+		if (count == 0) {
+			return NONE;
 		}
 		
-		return isCorrect;
+		Arrays.sort(codePoints, 0, count);
+		int distinct = 1;
+		for (int i = 1; i < count; i++) {
+			if (codePoints[i] != codePoints[distinct - 1]) {
+				codePoints[distinct++] = codePoints[i];
+			}
+		}
+		return Arrays.copyOf(codePoints, distinct);
+	}
+	
+	/** Prints help.
+	 * 
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("ASCIIFilter [-a allowed_characters] [-j number_of_threads] [-i export_format_corpus] [-v verdict_file]");
 	}
 	
 	/** Reads sentence pairs from the standard input and processes them. Expected format of the input: 
@@ -59,21 +171,19 @@ public class ASCIIFilter {
 	 * Incorrect segments are output on the standard output in the following format:
 	 * english_segment \t czech(or_other)_segment \t ErRoR_asciiFilter
 	 *
-	 * @param args
+	 * @param args Command line arguments. Optional -a allowed_characters, optional -j number_of_threads, 
+	 * optional -i export_format_corpus memory-mapped and read instead of the standard input,
+	 * optional -v verdict_file written instead of the output (see VerdictFile).
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
 		ASCIIFilter filter = new ASCIIFilter(); 
-				
-		String line;
-		ExportFormatProcessor reader = new ExportFormatProcessor(ExportMode.PLAIN);
-		while((line = reader.readLine()) != null) {
-			if (!filter.checkAlignment(line)) {
-				System.out.println(line + "\t" + filter.errorSign);
-			} else {
-				System.out.println(line);
-			}
-		}		
+		FilterRunner runner = new FilterRunner(filter);
+		if (!filter.configure(runner.readOptions(args))) {
+			printHelp();
+			return;
+		}
+		runner.processInputStream();
 	}
 	
 }
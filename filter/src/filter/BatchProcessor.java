@@ -0,0 +1,366 @@
+package filter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import filter.tools.MappedCorpus;
+import filter.tools.SentencePair;
+import filter.tools.Utf8;
+
+/** Reads a corpus in batches of sentence pairs, checks them with filters and writes the results.
+ *
+ * The input is either read line by line from a stream, or memory-mapped and split into chunks of whole lines,
+ * which are decoded by the workers.
+ *
+ * With more than one thread, a reader thread cuts the input into batches, a pool of workers checks them
+ * with the thread safe filters and the calling thread runs the remaining filters and writes the batches
+ * in the original order of the corpus. At most WINDOW_PER_THREAD batches per worker are in progress at a time,
+ * so the output is identical to the sequential run.
+ *
+ * @author Adam Liska
+ *
+ */
+public abstract class BatchProcessor {
+
+	public static final int BATCH_SIZE = 1000;
+	public static final int WINDOW_PER_THREAD = 4;
+
+	int threads = 1;
+	String inputFile;
+	/** Verdict file path, or prefix of the verdict files of several filters, null to write the corpus. */
+	String verdicts;
+	/** Score file path, or prefix of the score files of several filters, null not to write scores. */
+	String scoreFile;
+
+	/** A batch of corpus lines and the results of all filters.
+	 *
+	 */
+	static class Batch {
+		String[] lines;
+		MappedCorpus.Chunk chunk;
+		int count;
+		boolean last;
+		SentencePair[] pairs;
+		boolean[][] results;
+		/** Scores of the scoring filters, null for the other filters or if no score files are written. */
+		double[][] scores;
+		int[] checked;
+	}
+
+	/** Source of batches.
+	 *
+	 */
+	interface BatchReader {
+
+		/** Returns the next batch.
+		 *
+		 * @return Batch, marked as the last one at the end of the input.
+		 * @throws IOException Exception if there is an error reading input.
+		 */
+		Batch next() throws IOException;
+	}
+
+	/** Returns the filters run by the processor.
+	 *
+	 * @return List of configured filters.
+	 */
+	protected abstract List<Filter> getFilters();
+
+	/** Writes a checked batch.
+	 *
+	 * @param batch Batch with the results of all filters.
+	 * @param out Output
+	 * @return True to continue with the next batch, false to stop processing.
+	 * @throws IOException Exception if there is an error writing output.
+	 */
+	protected abstract boolean write(Batch batch, BufferedWriter out) throws IOException;
+
+	/** Finishes the output after the last batch has been written.
+	 *
+	 * @param out Output
+	 * @throws IOException Exception if there is an error writing output.
+	 */
+	protected void finish(BufferedWriter out) throws IOException {
+		out.flush();
+	}
+
+	/** Sets the number of threads checking the batches.
+	 *
+	 * @param threads Number of threads, 1 for sequential processing.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/** Sets a corpus file to be memory-mapped and processed instead of the standard input.
+	 *
+	 * @param inputFile Corpus file path, null for the standard input.
+	 */
+	public void setInputFile(String inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	/** Sets the verdict file written instead of the corpus with error signs, see VerdictFile.
+	 *
+	 * @param verdicts Verdict file path (a prefix of the verdict file paths for several filters), null to write the corpus.
+	 */
+	public void setVerdicts(String verdicts) {
+		this.verdicts = verdicts;
+	}
+
+	/** Sets the score file written by the scoring filters, see ScoreFile.
+	 *
+	 * @param scoreFile Score file path (a prefix of the score file paths for several filters), null not to write scores.
+	 */
+	public void setScoreFile(String scoreFile) {
+		this.scoreFile = scoreFile;
+	}
+
+	/** Reads the -j number_of_threads, -i corpus_file, -v verdict_file and -s score_file options.
+	 *
+	 * @param args Program options.
+	 * @return The remaining program options.
+	 */
+	public String[] readOptions(String[] args) {
+		ArrayList<String> rest = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-j") && (i + 1 < args.length)) {
+				setThreads(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-i") && (i + 1 < args.length)) {
+				setInputFile(args[++i]);
+			} else if (args[i].equals("-v") && (i + 1 < args.length)) {
+				setVerdicts(args[++i]);
+			} else if (args[i].equals("-s") && (i + 1 < args.length)) {
+				setScoreFile(args[++i]);
+			} else {
+				rest.add(args[i]);
+			}
+		}
+		return rest.toArray(new String[rest.size()]);
+	}
+
+	/** Processes the standard input, or the input file if it was set.
+	 *
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param out Output
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	protected void processInput(boolean exportFormat, BufferedWriter out) throws IOException {
+		if (inputFile != null) {
+			processFile(inputFile, exportFormat, out);
+		} else {
+			process(new BufferedReader(new InputStreamReader(System.in)), exportFormat, out);
+		}
+	}
+
+	/** Processes the input.
+	 *
+	 * @param in Input
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param out Output
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	protected void process(final BufferedReader in, boolean exportFormat, BufferedWriter out) throws IOException {
+		process(new BatchReader() {
+			public Batch next() throws IOException {
+				Batch batch = new Batch();
+				batch.lines = new String[BATCH_SIZE];
+				String line;
+				while ((batch.count < BATCH_SIZE) && ((line = in.readLine()) != null)) {
+					batch.lines[batch.count++] = line;
+				}
+				batch.last = (batch.count < BATCH_SIZE);
+				return batch;
+			}
+		}, exportFormat, out);
+	}
+
+	/** Memory-maps a corpus file and processes it in chunks of whole lines.
+	 *
+	 * @param file Corpus file path
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param out Output
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	protected void processFile(String file, boolean exportFormat, BufferedWriter out) throws IOException {
+		MappedCorpus corpus = new MappedCorpus(file);
+		final Iterator<MappedCorpus.Chunk> chunks = corpus.split(MappedCorpus.CHUNK_SIZE).iterator();
+		try {
+			process(new BatchReader() {
+				public Batch next() throws IOException {
+					Batch batch = new Batch();
+					if (chunks.hasNext()) {
+						batch.chunk = chunks.next();
+					}
+					batch.last = !chunks.hasNext();
+					return batch;
+				}
+			}, exportFormat, out);
+		} finally {
+			corpus.close();
+		}
+	}
+
+	/** Processes the batches.
+	 *
+	 * @param in Source of batches
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param out Output
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	private void process(BatchReader in, boolean exportFormat, BufferedWriter out) throws IOException {
+		if (threads > 1) {
+			processParallel(in, exportFormat, out);
+		} else {
+			Batch batch;
+			do {
+				batch = in.next();
+				check(batch, exportFormat, true);
+				check(batch, exportFormat, false);
+			} while (write(batch, out) && !batch.last);
+		}
+		finish(out);
+	}
+
+	/** Parses the batch and checks it with either the thread safe filters or the other ones.
+	 *
+	 * @param batch Batch
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param threadSafe True to run only the thread safe filters, false to run only the other ones.
+	 * @throws IOException Exception if there is an error reading additional filter input.
+	 */
+	private void check(Batch batch, boolean exportFormat, boolean threadSafe) throws IOException {
+		List<Filter> filters = getFilters();
+		if (batch.pairs == null) {
+			if (batch.chunk != null) {
+				readChunk(batch, exportFormat);
+			} else {
+				batch.pairs = new SentencePair[batch.count];
+				for (int i = 0; i < batch.count; i++) {
+					batch.pairs[i] = exportFormat ? SentencePair.fromExportFormat(batch.lines[i]) : SentencePair.fromPlain(batch.lines[i]);
+				}
+			}
+			batch.lines = null;
+			batch.results = new boolean[filters.size()][batch.count];
+			batch.checked = new int[filters.size()];
+			if (scoreFile != null) {
+				batch.scores = new double[filters.size()][];
+				for (int f = 0; f < filters.size(); f++) {
+					if (filters.get(f) instanceof ScoringFilter) {
+						batch.scores[f] = new double[batch.count];
+					}
+				}
+			}
+		}
+		for (int f = 0; f < filters.size(); f++) {
+			Filter filter = filters.get(f);
+			if (filter.isThreadSafe() == threadSafe) {
+				if ((batch.scores != null) && (batch.scores[f] != null)) {
+					batch.checked[f] = ((ScoringFilter) filter).checkAlignment(batch.pairs, batch.count, batch.results[f], batch.scores[f]);
+				} else {
+					batch.checked[f] = filter.checkAlignment(batch.pairs, batch.count, batch.results[f]);
+				}
+			}
+		}
+	}
+
+	/** Reads the sentence pairs of a memory-mapped chunk. Export Format lines are kept as UTF-8 bytes
+	 * and decoded only when a filter or the output needs the sentences.
+	 *
+	 * @param batch Batch with a chunk
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	private static void readChunk(Batch batch, boolean exportFormat) throws IOException {
+		byte[] bytes = batch.chunk.read();
+		int[] lines = MappedCorpus.findLines(bytes);
+		batch.count = lines.length / 2;
+		batch.pairs = new SentencePair[batch.count];
+		for (int i = 0; i < batch.count; i++) {
+			int start = lines[2 * i];
+			int end = lines[2 * i + 1];
+			if (exportFormat) {
+				batch.pairs[i] = SentencePair.fromExportFormat(bytes, start, end);
+			} else {
+				batch.pairs[i] = SentencePair.fromPlain(new String(bytes, start, end - start, Utf8.UTF8));
+			}
+		}
+		batch.chunk = null;
+	}
+
+	/** Returns a batch that failed with the given exception.
+	 *
+	 * @param e Exception
+	 * @return Completed future throwing the exception.
+	 */
+	private static Future<Batch> failedBatch(final Exception e) {
+		FutureTask<Batch> failed = new FutureTask<Batch>(new Callable<Batch>() {
+			public Batch call() throws Exception {
+				throw e;
+			}
+		});
+		failed.run();
+		return failed;
+	}
+
+	/** Processes the input with a reader thread, a pool of workers and writes the results from the calling thread.
+	 *
+	 * @param in Source of batches
+	 * @param exportFormat True for Export Format input, false for already extracted sentence pairs.
+	 * @param out Output
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	private void processParallel(final BatchReader in, final boolean exportFormat, BufferedWriter out) throws IOException {
+		final ExecutorService workers = Executors.newFixedThreadPool(threads);
+		final BlockingQueue<Future<Batch>> window = new ArrayBlockingQueue<Future<Batch>>(WINDOW_PER_THREAD * threads);
+
+		Thread reader = new Thread("batch reader") {
+			public void run() {
+				try {
+					try {
+						Batch batch;
+						do {
+							final Batch next = in.next();
+							window.put(workers.submit(new Callable<Batch>() {
+								public Batch call() throws IOException {
+									check(next, exportFormat, true);
+									return next;
+								}
+							}));
+							batch = next;
+						} while (!batch.last);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						window.put(failedBatch(e));
+					}
+				} catch (InterruptedException e) {
+					// the writer has stopped
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+
+		try {
+			Batch batch;
+			do {
+				batch = window.take().get();
+				check(batch, exportFormat, false);
+			} while (write(batch, out) && !batch.last);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while processing input!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Error checking sentence pairs!", e.getCause());
+		} finally {
+			reader.interrupt();
+			workers.shutdownNow();
+		}
+	}
+}
@@ -3,17 +3,24 @@ package filter;
 import java.util.*;
 import java.io.*;
 
-import filter.tools.ExportFormatProcessor;
 import filter.tools.ExportMode;
+import filter.tools.LongHashSet;
+import filter.tools.MappedDictionary;
+import filter.tools.MatchKeys;
+import filter.tools.SentencePair;
+import filter.tools.TranslationIndex;
 
 /** Implementation of the dictionary filter.
  *
  * @author Adam Liska
  *
  */
-public class DictionaryFilter {
+public class DictionaryFilter implements ScoringFilter {
 	HashMap<String, LinkedList<String>> dictionary;
-	LinkedList<String> skip;
+	/** Match keys of the translations of each dictionary word, built from the dictionary once it is read 
+	 * or mapped from a binary dictionary. */
+	TranslationIndex index;
+	HashSet<String> skip;
 	Double LIMIT;
 	String errorSign = "ErRoR_dictionaryFilter"; 
 	
@@ -22,7 +29,8 @@ public class DictionaryFilter {
 	 */
 	public DictionaryFilter() {
 		dictionary = new HashMap<String, LinkedList<String>>();
-		skip = new LinkedList<String>();
+		index = new MemoryIndex(new HashMap<String, long[]>());
+		skip = new HashSet<String>();
 		skip.add("in");
 		skip.add("at");
 		skip.add("by");
@@ -39,6 +47,46 @@ public class DictionaryFilter {
 		LIMIT = limit;
 	}
 	
+	public String getName() {
+		return "dictionary";
+	}
+	
+	public String getErrorSign() {
+		return errorSign;
+	}
+	
+	public ExportMode getMode() {
+		return ExportMode.LEMMA;
+	}
+	
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result) {
+		for (int i = 0; i < count; i++) {
+			result[i] = checkAlignment(pairs[i].getSource(ExportMode.LEMMA), pairs[i].getTarget(ExportMode.LEMMA));
+		}
+		return count;
+	}
+	
+	/** Checks a batch of sentence pairs, the score of a pair is the second language words coverage, 
+	 * NaN for pairs too short to be checked.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result, double[] scores) {
+		for (int i = 0; i < count; i++) {
+			double score = getScore(pairs[i].getSource(ExportMode.LEMMA), pairs[i].getTarget(ExportMode.LEMMA));
+			result[i] = !(score < LIMIT);
+			scores[i] = score;
+		}
+		return count;
+	}
+	
+	public double getThreshold() {
+		return LIMIT;
+	}
+	
 	/** Reads and processes dictionary in the format conforming to GNU FDL dictionary at slovnik.zcu.cz
 	 * 
 	 * @param file Path to the dictionary
@@ -66,6 +114,7 @@ public class DictionaryFilter {
 		} catch (IOException e) {
 			throw new RuntimeException("Error reading dictionary file!");
 		}
+		buildIndex();
 	}
 
 	
@@ -95,7 +144,77 @@ public class DictionaryFilter {
 				dictionary.put(word, newlist);
 			}
 		}
+		buildIndex();
+	}
+	
+	/** Precomputes the match keys of the translations of all dictionary words, including the word itself.
+	 * The index is replaced as a whole, so it is never modified while sentences are checked.
+	 * 
+	 */
+	void buildIndex() {
+		HashMap<String, long[]> newIndex = new HashMap<String, long[]>(2 * dictionary.size());
+		LinkedHashSet<String> keys = new LinkedHashSet<String>();
+		for (Map.Entry<String, LinkedList<String>> entry:dictionary.entrySet()) {
+			keys.clear();
+			for (String translation:entry.getValue()) {
+				keys.add(MatchKeys.getMatchKey(translation));
+			}
+			keys.add(MatchKeys.getMatchKey(entry.getKey()));
+			
+			long[] packed = new long[2 * keys.size()];
+			int k = 0;
+			for (String key:keys) {
+				packed[k++] = MatchKeys.pack(key, 0, key.length());
+				packed[k++] = key.length();
+			}
+			newIndex.put(entry.getKey(), packed);
+		}
+		index = new MemoryIndex(newIndex);
+	}
+	
+	/** Match keys held in memory.
+	 * 
+	 */
+	static class MemoryIndex implements TranslationIndex {
+		/** Packed match keys of each word followed by their lengths. */
+		HashMap<String, long[]> keys;
+		
+		MemoryIndex(HashMap<String, long[]> keys) {
+			this.keys = keys;
+		}
 		
+		public boolean isCovered(String word, Target target) {
+			long[] wordKeys = keys.get(word);
+			if (wordKeys == null) {
+				return MatchKeys.isCovered(word, target);
+			}
+			for (int k = 0; k < wordKeys.length; k += 2) {
+				if (target.contains(wordKeys[k], (int) wordKeys[k + 1])) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/** Maps a binary dictionary produced by filter.tools.DictionaryCompiler instead of reading the dictionaries.
+	 * 
+	 * @param file Path to the binary dictionary
+	 */
+	public void readBinaryDict(String file) {
+		try {
+			index = new MappedDictionary(file);
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading binary dictionary!");
+		}
+	}
+	
+	/** Returns the dictionary read from the text and GIZA dictionaries.
+	 * 
+	 * @return Words and their translations
+	 */
+	public HashMap<String, LinkedList<String>> getDictionary() {
+		return dictionary;
 	}
 
 	/** Checks whether the word is to be skipped.
@@ -104,11 +223,7 @@ public class DictionaryFilter {
 	 * @return true if the source language word is to be skipped when looking for translations.  
 	 */
 	private boolean isSkipped(String word) {
-		if (skip.contains(word)) {
-			return true;
-		} else {
-			return false;
-		}
+		return skip.contains(word);
 	}
 	
 	/** Checks whether the sentence pair is correct.
@@ -118,25 +233,37 @@ public class DictionaryFilter {
 	 */
 	public boolean checkAlignment(String line) {
 		String[] parts = line.split("\\t");
-		String en = parts[0].toLowerCase().replace(" .", "");
-		String cs = parts[1].toLowerCase().replace(" .", "");
-		
-		boolean result = true;
+		return checkAlignment(parts[0], parts[1]);
+	}
+	
+	/** Checks whether the sentence pair is correct.
+	 * 
+	 * @param source Lemmatised first language segment
+	 * @param target Lemmatised second language segment
+	 * @return True if the pair is correct, false otherwise
+	 */
+	public boolean checkAlignment(String source, String target) {
+		return !(getScore(source, target) < LIMIT);
+	}
+	
+	/** Computes the score of a sentence pair compared with the coverage limit.
+	 * 
+	 * @param source Lemmatised first language segment
+	 * @param target Lemmatised second language segment
+	 * @return Target words coverage, NaN if the first language segment has at most one word 
+	 * or the second language segment at most two words.
+	 */
+	public double getScore(String source, String target) {
+		String en = source.toLowerCase().replace(" .", "");
+		String cs = target.toLowerCase().replace(" .", "");
 		
 		String[] enwords = en.split(" ");
 		String[] cswords = cs.split(" ");
 		
-		Double cslength = new Double(cswords.length);
-		
-		if (enwords.length > 1 && cslength > 2) {
-			double ratio = getRatio(en, cs);
-			
-			if ((ratio) < LIMIT) {
-				result = false;
-			}
+		if (enwords.length > 1 && cswords.length > 2) {
+			return getRatio(enwords, cswords.length, new TargetIndex(cs));
 		}
-		
-		return result;
+		return Double.NaN;
 	}
 	
 	
@@ -147,76 +274,90 @@ public class DictionaryFilter {
 	 * @return Target words coverage
 	 */
 	public double getRatio(String en, String cs) {
-
-		String[] enwords = en.split(" ");
-		String[] cswords = cs.split(" ");
+		return getRatio(en.split(" "), cs.split(" ").length, new TargetIndex(cs));
+	}
 	
-		Double cslength = new Double(cswords.length);
+	/** Computes the second language words coverage.
+	 * 
+	 * @param enwords Source language words
+	 * @param cslength Number of target language words
+	 * @param cs Index of the target language sentence
+	 * @return Target words coverage
+	 */
+	private double getRatio(String[] enwords, int cslength, TargetIndex cs) {
 		int coveredWords = 0;
 		for (int i = 0; i < enwords.length; i++) {
 			String word = enwords[i];
 			if (!isSkipped(word)) {
-				LinkedList<String> translations = getListOfTranslations(word);
-				if (isCovered(cs, translations)) {
+				if (index.isCovered(word, cs)) {
 					coveredWords++;
 				}
 			}
 		}
 
-		return coveredWords / cslength;
-		
+		return coveredWords / (double) cslength;
 	}
 
-	/** Checks whether a word from the English segment is covered in the Czech segment.
+	/** Substrings of a target sentence up to the length of match keys, so that every match key 
+	 * is looked up in constant time instead of searching the sentence. Short sentences are searched directly.
 	 * 
-	 * @param cs Czech sentence
-	 * @param translations List of translations of the English word. 
-	 * @return
 	 */
-	private boolean isCovered(String cs, LinkedList<String> translations) {
-		boolean isCovered = false;
-		for (String translation:translations) {
-			if (translation.contains(" si")) {
-				translation = translation.substring(0, translation.indexOf(" si"));
-			} else if (translation.contains(" se")) {
-				translation = translation.substring(0, translation.indexOf(" se"));
+	static class TargetIndex implements TranslationIndex.Target {
+		/** Sentences shorter than this are not indexed. */
+		static final int MIN_LENGTH = 64;
+		
+		String cs;
+		/** Substrings of 4 characters, packed 16 bits per character. */
+		LongHashSet longSubstrings;
+		/** Shorter substrings, packed 16 bits per character, with their length in the top bits. */
+		LongHashSet shortSubstrings;
+		
+		/** Indexes all substrings of 1 to 4 characters of a sentence.
+		 * 
+		 * @param cs Target language sentence
+		 */
+		TargetIndex(String cs) {
+			this.cs = cs;
+			int length = cs.length();
+			if (length < MIN_LENGTH) {
+				return;
 			}
-
-			if (translation.length() > 4) {
-				translation = translation.substring(0, 4);
+			longSubstrings = new LongHashSet(length);
+			shortSubstrings = new LongHashSet(3 * length);
+			for (int i = 0; i < length; i++) {
+				long packed = 0;
+				for (int l = 1; (l <= TranslationIndex.MAX_LENGTH) && (i + l <= length); l++) {
+					packed = (packed << 16) | cs.charAt(i + l - 1);
+					if (l < TranslationIndex.MAX_LENGTH) {
+						shortSubstrings.add(((long) l << 48) | packed);
+					} else {
+						longSubstrings.add(packed);
+					}
+				}
 			}
-			
-			if (cs.contains(translation)) {
-				isCovered = true;
-				break;
+		}
+		
+		public boolean contains(long key, int length) {
+			if (longSubstrings == null) {
+				return MatchKeys.occursIn(cs, key, length);
+			}
+			if (length == 0) {
+				return true;
+			}
+			if (length < TranslationIndex.MAX_LENGTH) {
+				return shortSubstrings.contains(((long) length << 48) | key);
 			}
+			return longSubstrings.contains(key);
 		}
-		return isCovered;
 	}
 
-	/** Gets list of translations of an English word.
-	 * 
-	 * @param word English word
-	 * @return List of translations.
-	 */
-	private LinkedList<String> getListOfTranslations(String word) {
-		LinkedList<String> translations;
-		if (dictionary.containsKey(word)) {
-			translations = dictionary.get(word);
-		} else {
-			translations = new LinkedList<String>();
-		}
-
-		translations.add(word);
-		return translations;
-	}
-	
 	/** Prints help.
 	 * 
 	 */
 	public static void printHelp() {
 		System.out.println("Use:");
-		System.out.println("DictionaryFilter -d dictionary_file -g giza_dictionary_file");
+		System.out.println("DictionaryFilter -d dictionary_file -g giza_dictionary_file [-j number_of_threads] [-i export_format_corpus] [-v verdict_file] [-s score_file]");
+		System.out.println("DictionaryFilter -b binary_dictionary_file [-j number_of_threads] [-i export_format_corpus] [-v verdict_file] [-s score_file]");
 	}
 	
 	/** Processes sentence pairs in the format: lemmatised_source_segment \t lemmatised_target_segment
@@ -227,53 +368,61 @@ public class DictionaryFilter {
 	 * @throws IOException Exception if there is an error reading input.
 	 */
 	public void processInputStream() throws IOException {
-		ExportFormatProcessor in = new ExportFormatProcessor(ExportMode.LEMMA);
-		String line;
-		while((line = in.readLine()) != null) {
-			if (!checkAlignment(line)) {
-				System.out.println(line + "\t" + errorSign);
-			} else {
-				System.out.println(line);
-			}
-		}
-
+		new FilterRunner(this).processInputStream();
 	}
 
-	/** The main method of the filter, it sets up the DictionaryFilter object.
+	/** Reads dictionaries given by the program options.
 	 * 
-	 *  
-	 * @param args Command line arguments. Program options: -t dictionary_file_path -g giza_dictionary_file_path; both required. 
+	 * @param args Program options: -d dictionary_file_path -g giza_dictionary_file_path; at least one of them required. 
+	 * Alternatively -b binary_dictionary_file_path alone.
+	 * @return True if the options were correct, false otherwise.
 	 */
-	public static void main(String[] args) {
-		DictionaryFilter filter = new DictionaryFilter();
-		
+	public boolean configure(String[] args) {
 		if (args.length == 4) {
 			if (args[0].equals("-d") && args[2].equals("-g")) {
-				filter.readDict(args[1]);
-				filter.readGizaInput(args[3]);
+				readDict(args[1]);
+				readGizaInput(args[3]);
 			} else if (args[0].equals("-g") && args[2].equals("-d")) {
-				filter.readGizaInput(args[1]);
-				filter.readDict(args[3]);
+				readGizaInput(args[1]);
+				readDict(args[3]);
 			} else {
-				printHelp();
-				return;
+				return false;
 			}
 		} else if (args.length == 2) {
 			if (args[0].equals("-d")) {
-				filter.readDict(args[1]);
+				readDict(args[1]);
 			} else if (args[0].equals("-g")) {
-				filter.readGizaInput(args[1]);
+				readGizaInput(args[1]);
+			} else if (args[0].equals("-b")) {
+				readBinaryDict(args[1]);
 			} else {
-				printHelp();
-				return;
+				return false;
 			}
 		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/** The main method of the filter, it sets up the DictionaryFilter object.
+	 * 
+	 *  
+	 * @param args Command line arguments. Program options: -t dictionary_file_path -g giza_dictionary_file_path; both required. 
+	 * Optional -j number_of_threads checks the pairs in parallel, optional -i export_format_corpus is memory-mapped 
+	 * and read instead of the standard input, optional -v verdict_file is written instead of the output (see VerdictFile),
+	 * optional -s score_file gets the coverage of every pair (see ScoreFile).
+	 */
+	public static void main(String[] args) {
+		DictionaryFilter filter = new DictionaryFilter();
+		FilterRunner runner = new FilterRunner(filter);
+		
+		if (!filter.configure(runner.readOptions(args))) {
 			printHelp();
 			return;
 		}
 
 		try {
-			filter.processInputStream();
+			runner.processInputStream();
 		} catch (IOException e) {
 			throw new RuntimeException("Error processing input stream!");
 		}
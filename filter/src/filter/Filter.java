@@ -0,0 +1,58 @@
+package filter;
+
+import java.io.IOException;
+
+import filter.tools.ExportMode;
+import filter.tools.SentencePair;
+
+/** Common interface of the filters. Implementations are discovered with java.util.ServiceLoader,
+ * so every filter needs a public constructor without parameters.
+ * 
+ * @author Adam Liska
+ *
+ */
+public interface Filter {
+
+	/** Returns the name the filter is selected by, e.g. ascii.
+	 * 
+	 * @return Filter name.
+	 */
+	String getName();
+	
+	/** Returns the error sign added to incorrect sentence pairs.
+	 * 
+	 * @return Error sign.
+	 */
+	String getErrorSign();
+	
+	/** Returns the export mode the filter works with.
+	 * 
+	 * @return Export mode, null if the filter doesn't look at the sentence pairs.
+	 */
+	ExportMode getMode();
+	
+	/** Tells whether batches can be checked concurrently by several threads.
+	 * 
+	 * @return True if the filter is thread safe, false if it has to check the batches one by one in the corpus order,
+	 * e.g. because it reads its own additional input.
+	 */
+	boolean isThreadSafe();
+	
+	/** Sets the filter up.
+	 * 
+	 * @param args Filter options, the same as the filter's own program takes (without the corpus).
+	 * @return True if the options were correct, false otherwise.
+	 * @throws IOException Exception if there is an error reading filter data.
+	 */
+	boolean configure(String[] args) throws IOException;
+	
+	/** Checks a batch of sentence pairs.
+	 * 
+	 * @param pairs Sentence pairs.
+	 * @param count Number of sentence pairs in the batch.
+	 * @param result Array for the results: true for a correct pair, false otherwise.
+	 * @return Number of checked pairs; less than count only if additional filter input has ended.
+	 * @throws IOException Exception if there is an error reading additional filter input.
+	 */
+	int checkAlignment(SentencePair[] pairs, int count, boolean[] result) throws IOException;
+}
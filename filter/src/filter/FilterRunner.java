@@ -0,0 +1,145 @@
+package filter;
+
+import java.io.*;
+import java.util.*;
+
+import filter.tools.ExportMode;
+import filter.tools.ScoreFile;
+import filter.tools.VerdictFile;
+
+/** Runs a single filter over a corpus. Sentence pairs are read and checked in batches.
+ * Correct pairs are output unchanged, incorrect pairs are followed by a new field with the error sign of the filter:
+ * firstLang_segment \t secondLang_segment \t ErRoR_xxx
+ * If a verdict file is set, only the verdicts are written into it, see VerdictFile.
+ * If a score file is set, the scores of a scoring filter are written into it as well, see ScoreFile.
+ *
+ * @author Adam Liska
+ *
+ */
+public class FilterRunner extends BatchProcessor {
+
+	List<Filter> filters;
+	BufferedWriter out;
+	VerdictFile.Writer verdictWriter;
+	ScoreFile.Writer scoreWriter;
+	long checksum = VerdictFile.EMPTY_CHECKSUM;
+
+	/** Sets up a runner writing to the standard output.
+	 *
+	 * @param filter Configured filter.
+	 */
+	public FilterRunner(Filter filter) {
+		this(filter, new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+	}
+
+	/** Sets up a runner.
+	 *
+	 * @param filter Configured filter.
+	 * @param out Output
+	 */
+	public FilterRunner(Filter filter, BufferedWriter out) {
+		this.filters = Collections.singletonList(filter);
+		this.out = out;
+	}
+
+	protected List<Filter> getFilters() {
+		return filters;
+	}
+
+	/** Processes Export Format lines from the standard input, or from the input file if it was set. 
+	 * Sentence pairs are output in the export mode of the filter.
+	 *
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void processInputStream() throws IOException {
+		processInput(true, out);
+	}
+
+	/** Processes an already extracted corpus: firstLang_segment \t secondLang_segment.
+	 *
+	 * @param corpus Corpus
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void processCorpus(BufferedReader corpus) throws IOException {
+		process(corpus, false, out);
+	}
+
+	/** Memory-maps and processes an already extracted corpus file: firstLang_segment \t secondLang_segment.
+	 *
+	 * @param corpusFile Corpus file path
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void processCorpusFile(String corpusFile) throws IOException {
+		processFile(corpusFile, false, out);
+	}
+
+	/** Writes the checked pairs of the batch, or their verdicts, and their scores. Stops if additional filter input has ended.
+	 *
+	 */
+	protected boolean write(Batch batch, BufferedWriter out) throws IOException {
+		Filter filter = filters.get(0);
+		ExportMode mode = (filter.getMode() != null) ? filter.getMode() : ExportMode.PLAIN;
+		boolean[] result = batch.results[0];
+		int checked = batch.checked[0];
+
+		if ((verdicts != null) || (scoreFile != null)) {
+			openFiles();
+			for (int i = 0; i < checked; i++) {
+				checksum = VerdictFile.hash(checksum, batch.pairs[i].getPair(ExportMode.PLAIN));
+			}
+			if (scoreWriter != null) {
+				for (int i = 0; i < checked; i++) {
+					scoreWriter.add(batch.scores[0][i]);
+				}
+			}
+			if (verdictWriter != null) {
+				for (int i = 0; i < checked; i++) {
+					verdictWriter.add(!result[i]);
+				}
+				return checked == batch.count;
+			}
+		}
+
+		for (int i = 0; i < checked; i++) {
+			out.write(batch.pairs[i].getPair(mode));
+			if (!result[i]) {
+				out.write("\t");
+				out.write(filter.getErrorSign());
+			}
+			out.newLine();
+		}
+		return checked == batch.count;
+	}
+
+	/** Creates the verdict and score files.
+	 *
+	 */
+	private void openFiles() throws IOException {
+		Filter filter = filters.get(0);
+		if ((verdicts != null) && (verdictWriter == null)) {
+			verdictWriter = new VerdictFile.Writer(verdicts, filter.getName(), filter.getErrorSign());
+		}
+		if ((scoreFile != null) && (scoreWriter == null)) {
+			if (!(filter instanceof ScoringFilter)) {
+				throw new IllegalArgumentException("Filter " + filter.getName() + " doesn't compute scores!");
+			}
+			scoreWriter = new ScoreFile.Writer(scoreFile, filter.getName(), filter.getErrorSign(), ((ScoringFilter) filter).getThreshold());
+		}
+	}
+
+	/** Writes the headers of the verdict and score files.
+	 *
+	 */
+	protected void finish(BufferedWriter out) throws IOException {
+		if ((verdicts != null) || (scoreFile != null)) {
+			openFiles();
+			if (verdictWriter != null) {
+				verdictWriter.close(checksum);
+			}
+			if (scoreWriter != null) {
+				scoreWriter.close(checksum);
+			}
+		}
+		super.finish(out);
+	}
+}
@@ -1,17 +1,33 @@
 package filter;
 
 import java.io.*;
+import java.util.Arrays;
 
+import filter.tools.ExportMode;
+import filter.tools.GizaA3Reader;
+import filter.tools.SentencePair;
 
 /** Implementation of the translation probablity filter.
  * 
  * @author Adam Liska
  *
  */
-public class GizaFilter {
+public class GizaFilter implements ScoringFilter {
 	
 	Double THRESHOLD;
 	String errorSign = "ErRoR_gizaFilter";
+	/** Normalised alignment scores of both directions and optionally the features of the alignments, read in advance. */
+	GizaA3Reader.Alignments alignments1;
+	GizaA3Reader.Alignments alignments2;
+	int next;
+	
+	boolean features;
+	/** Maximum ratio of unaligned words in either direction. */
+	double maxUnaligned = 0.5;
+	/** Maximum number of words aligned to a single word in either direction. */
+	int maxFertility = 8;
+	/** Maximum ratio of crossing pairs of alignment links in either direction. */
+	double maxCrossing = 0.5;
 	
 	/** Sets threshold at -10.
 	 *   
@@ -28,6 +44,114 @@ public class GizaFilter {
 		THRESHOLD = threshold;
 	}
 
+	public String getName() {
+		return "giza";
+	}
+	
+	public String getErrorSign() {
+		return errorSign;
+	}
+	
+	/** The filter reads GIZA++ output instead of the sentence pairs.
+	 * 
+	 */
+	public ExportMode getMode() {
+		return null;
+	}
+	
+	public boolean isThreadSafe() {
+		return false;
+	}
+	
+	public double getThreshold() {
+		return THRESHOLD;
+	}
+	
+	/** Reads GIZA++ output files. The files are parsed in parallel, using all available processors.
+	 * 
+	 * @param args Filter options: [-f] [-u max_unaligned_ratio] [-m max_fertility] [-c max_crossing_density]
+	 * GIZA_firstLang_secondLang_file GIZA_secondLang_firstLang_file, both files required. 
+	 * -f (or any of the limits) checks the features of the alignments in addition to the alignment score.
+	 */
+	public boolean configure(String[] args) throws IOException {
+		int i = 0;
+		try {
+			for (; (i < args.length) && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-f")) {
+					features = true;
+				} else if (args[i].equals("-u") && (i + 1 < args.length)) {
+					maxUnaligned = Double.parseDouble(args[++i]);
+					features = true;
+				} else if (args[i].equals("-m") && (i + 1 < args.length)) {
+					maxFertility = Integer.parseInt(args[++i]);
+					features = true;
+				} else if (args[i].equals("-c") && (i + 1 < args.length)) {
+					maxCrossing = Double.parseDouble(args[++i]);
+					features = true;
+				} else {
+					return false;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		if (args.length - i != 2) {
+			return false;
+		}
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		alignments1 = GizaA3Reader.read(args[i], threads, features);
+		alignments2 = GizaA3Reader.read(args[i + 1], threads, features);
+		next = 0;
+		return true;
+	}
+	
+	/** Checks the next sentence pairs of the corpus. The pairs are only counted, the scores of the records 
+	 * with the same sentence pair numbers are checked.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result) throws IOException {
+		return checkAlignment(pairs, count, result, null);
+	}
+	
+	/** Checks the next sentence pairs of the corpus, the score of a pair is the sum of the alignment scores 
+	 * of both directions, negative infinity if the features of the alignments are checked and exceed their limits.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result, double[] scores) throws IOException {
+		int records = Math.min(alignments1.size(), alignments2.size());
+		for (int i = 0; i < count; i++) {
+			if (next >= records) {
+				return i;
+			}
+			double score = getScore(next);
+			result[i] = !(score < THRESHOLD);
+			if (scores != null) {
+				scores[i] = score;
+			}
+			next++;
+		}
+		return count;
+	}
+	
+	/** Computes the score of a record of both GIZA++ output files.
+	 * 
+	 * @param r Record number
+	 * @return Sum of the alignment scores, negative infinity if the features are checked and exceed their limits.
+	 */
+	double getScore(int r) {
+		double probability = alignments1.scores[r] + alignments2.scores[r];
+		if (!features) {
+			return probability;
+		}
+		if ((Math.max(alignments1.unaligned[r], alignments2.unaligned[r]) <= maxUnaligned)
+				&& (Math.max(alignments1.fertility[r], alignments2.fertility[r]) <= maxFertility)
+				&& (Math.max(alignments1.crossing[r], alignments2.crossing[r]) <= maxCrossing)) {
+			return probability;
+		}
+		return Double.NEGATIVE_INFINITY;
+	}
+	
 	/** Processes input coming from two GIZA++ output files (directions firstLang->secondLang and secondLang->firstLang).
 	 * In case of a bad alignment, the filter adds a new field at the end of the appropriate corpus line: ErRoR_gizaFilter,
 	 * which is output to the standard output.
@@ -38,36 +162,20 @@ public class GizaFilter {
 	 * @throws IOException Exception if there is an error reading input.
 	 */
 	public void processInput(String giza1, String giza2, String corpusFile) throws IOException {
-		BufferedReader in1 = new BufferedReader(new FileReader(giza1));
-		BufferedReader in2 = new BufferedReader(new FileReader(giza2));
-		BufferedReader corpus = new BufferedReader(new FileReader(corpusFile));
-
-		String line1;
-		String line2;
-		String pair;
-		
-		int i = 0;
-		while(((line1 = in1.readLine()) != null) && ((line2 = in2.readLine()) != null) && ((pair = corpus.readLine()) != null)) {
-			i++;
-			String[] parts1 = line1.split(" ");
-			String[] parts2 = line2.split(" ");
-			
-			Double prob1 = new Double(parts1[13]);
-			Double length1 = new Double(parts1[9]);
-			Double prob2 =  new Double(parts2[13]);
-			Double length2 = new Double(parts2[9]);
-			
-			Double probability = (Math.log(prob1) / (length1)) + (Math.log(prob2) / (length2));
-			
-			if (probability < THRESHOLD) {
-				System.out.println(pair + "\t" + errorSign);
-			} else {
-				System.out.println(pair);
-			}
-			
-			in1.readLine();in1.readLine();
-			in2.readLine();in2.readLine();
-		}
+		processInput(giza1, giza2, corpusFile, new FilterRunner(this));
+	}
+	
+	/** Processes input coming from two GIZA++ output files with the given runner. The corpus is memory-mapped.
+	 * 
+	 * @param giza1 prefix1.A3.final, firstLang->secondLang GIZA++ output file
+	 * @param giza2 prefix2.A3.final, secondLang->firstLang GIZA++ output file
+	 * @param corpusFile corpus file path
+	 * @param runner Runner of this filter
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void processInput(String giza1, String giza2, String corpusFile, FilterRunner runner) throws IOException {
+		configure(new String[] {giza1, giza2});
+		runner.processCorpusFile(corpusFile);
 	}
 	
 	/** Prints help.
@@ -75,23 +183,28 @@ public class GizaFilter {
 	 */
 	public static void printHelp() {
 		System.out.println("Use:");
-		System.out.println("GizaFilter GIZA_firstLang_secondLang_file GIZA_secondLang_firstLang_file corpus");
+		System.out.println("GizaFilter [-j number_of_threads] [-v verdict_file] [-s score_file] [-f] [-u max_unaligned_ratio] [-m max_fertility] [-c max_crossing_density] GIZA_firstLang_secondLang_file GIZA_secondLang_firstLang_file corpus");
 	}
 	
 	/** Main method. 
 	 * 
 	 * @param args Command line arguments. Program takes three arguments: GIZA_firstLang_secondLang_file, GIZA_secondLang_firstLang_file, corpus (in this order, all required)
+	 * and optional -j number_of_threads decoding the memory-mapped corpus in parallel, optional -v verdict_file
+	 * written instead of the output (see VerdictFile), optional -s score_file with the scores (see ScoreFile). The options -f, -u, -m and -c 
+	 * before the GIZA++ files enable the checks of the alignment features, see configure.
 	 */
 	public static void main(String[] args) {
-		if (args.length == 3) {
-			GizaFilter filter = new GizaFilter();
-			try {
-				filter.processInput(args[0], args[1], args[2]);	
-			} catch (IOException e) {
-				throw new RuntimeException("Error processing input!");
-			}			
-		} else {
-			printHelp();
+		GizaFilter filter = new GizaFilter();
+		FilterRunner runner = new FilterRunner(filter);
+		args = runner.readOptions(args);
+		try {
+			if ((args.length < 3) || !filter.configure(Arrays.copyOf(args, args.length - 1))) {
+				printHelp();
+				return;
+			}
+			runner.processCorpusFile(args[args.length - 1]);
+		} catch (IOException e) {
+			throw new RuntimeException("Error processing input!");
 		}
 	}
 }
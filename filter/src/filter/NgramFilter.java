@@ -1,15 +1,30 @@
 package filter;
 
 import java.io.*;
+import java.util.Arrays;
+
+import filter.tools.ArpaModel;
+import filter.tools.CharacterScorer;
+import filter.tools.ExportMode;
+import filter.tools.LanguageModel;
+import filter.tools.MappedLanguageModel;
+import filter.tools.SentencePair;
+import filter.tools.SrilmParser;
 
 /** This class implements the filter based on n-grams. 
+ * The sentences are scored either by SRILM Toolkit in advance (its output is read), 
+ * or by a character language model loaded by the filter.
  * 
  * @author Adam Liska
  *
  */
-public class NgramFilter {
+public class NgramFilter implements ScoringFilter {
 	String errorSign = "ErRoR_ngramFilter";
 	Double LIMIT;
+	SrilmParser srilm;
+	CharacterScorer scorer;
+	/** Scores the second language sentences instead of the first language ones. */
+	boolean target;
 	
 	/** Constructor without parameters, setting default threshold at -1.5.
 	 * 
@@ -26,6 +41,125 @@ public class NgramFilter {
 		LIMIT = limit;
 	}
 	
+	public String getName() {
+		return "ngram";
+	}
+	
+	public String getErrorSign() {
+		return errorSign;
+	}
+	
+	/** The filter reads SRILM Toolkit output instead of the sentence pairs, unless it has a language model.
+	 * 
+	 */
+	public ExportMode getMode() {
+		return (scorer == null) ? null : ExportMode.PLAIN;
+	}
+	
+	public boolean isThreadSafe() {
+		return scorer != null;
+	}
+	
+	public double getThreshold() {
+		return LIMIT;
+	}
+	
+	/** Opens SRILM Toolkit output or loads a character language model.
+	 * 
+	 * @param args Filter options: srilm_output, or -lm ARPA_model [-t], or -b binary_model [-t]. 
+	 * The model scores the first language sentences, with -t the second language ones. 
+	 * Binary models are produced by LanguageModelCompiler.
+	 */
+	public boolean configure(String[] args) throws IOException {
+		if ((args.length == 1) && !args[0].startsWith("-")) {
+			srilm = new SrilmParser(new FileReader(args[0]));
+			return true;
+		}
+		LanguageModel model = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-lm") && (i + 1 < args.length) && (model == null)) {
+				model = new ArpaModel(args[++i]);
+			} else if (args[i].equals("-b") && (i + 1 < args.length) && (model == null)) {
+				model = new MappedLanguageModel(args[++i]);
+			} else if (args[i].equals("-t")) {
+				target = true;
+			} else {
+				return false;
+			}
+		}
+		if (model == null) {
+			return false;
+		}
+		scorer = new CharacterScorer(model);
+		return true;
+	}
+	
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result) throws IOException {
+		return checkAlignment(pairs, count, result, null);
+	}
+	
+	/** Checks a batch of sentence pairs, the score of a pair is its log10 probability per character, 
+	 * NaN for sentences of at most 35 characters.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result, double[] scores) throws IOException {
+		if (scorer != null) {
+			CharacterScorer.Score score = new CharacterScorer.Score();
+			for (int i = 0; i < count; i++) {
+				scorer.score(target ? pairs[i].getTarget(ExportMode.PLAIN) : pairs[i].getSource(ExportMode.PLAIN), score);
+				result[i] = isCorrect(score.characters, score.logProbability);
+				if (scores != null) {
+					scores[i] = getScore(score.characters, score.logProbability);
+				}
+			}
+			return count;
+		}
+		for (int i = 0; i < count; i++) {
+			if (!srilm.next()) {
+				return i;
+			}
+			result[i] = isCorrect(srilm.getWords(), srilm.getLogProbability());
+			if (scores != null) {
+				scores[i] = getScore(srilm.getWords(), srilm.getLogProbability());
+			}
+		}
+		return count;
+	}
+	
+	/** Reads one sentence record of SRILM Toolkit output and checks the sentence score.
+	 * 
+	 * @param srilm Parser of SRILM Toolkit output for first language.
+	 * @return True for a correct sentence, false otherwise, null if the end of SRILM output was reached.
+	 * @throws IOException Exception if there is an error reading input or the record is malformed.
+	 */
+	public Boolean checkRecord(SrilmParser srilm) throws IOException {
+		if (!srilm.next()) {
+			return null;
+		}
+		return isCorrect(srilm.getWords(), srilm.getLogProbability());
+	}
+	
+	/** Checks the score of a sentence, sentences of at most 35 characters are always correct.
+	 * 
+	 * @param numchars Number of characters, including the spaces after words.
+	 * @param prob Log10 probability of the sentence.
+	 * @return True for a correct sentence, false otherwise.
+	 */
+	boolean isCorrect(double numchars, double prob) {
+		double result = prob / numchars;
+		return !((result < LIMIT) && (numchars > 35));
+	}
+	
+	/** Returns the score of a sentence compared with the threshold.
+	 * 
+	 * @param numchars Number of characters, including the spaces after words.
+	 * @param prob Log10 probability of the sentence.
+	 * @return Log10 probability per character, NaN for sentences of at most 35 characters.
+	 */
+	double getScore(double numchars, double prob) {
+		return (numchars > 35) ? prob / numchars : Double.NaN;
+	}
+	
 	/** This method processed two input streams: SRILM Toolkit output and the corpus.
 	 * 
 	 * @param srilm SRILM Toolkit output for first language. 
@@ -33,32 +167,8 @@ public class NgramFilter {
 	 * @throws IOException Exception if there is an error reading input.
 	 */
 	public void processInputStream(BufferedReader srilm, BufferedReader corpus) throws IOException {
-		String line;
-		int i = 0;
-		while((line = srilm.readLine()) != null) {
-			String pair = corpus.readLine();
-			i++;
-
-			if (line.startsWith("file")) {
-				break;
-			}
-			
-			line = srilm.readLine();
-
-			Double numchars = new Double(line.split(" ")[2]);
-			line = srilm.readLine();
-			Double prob = new Double(line.split(" ")[3]);
-			Double result = (prob / numchars);
-
-			if ((result < LIMIT) && (numchars > 35)) {
-				System.out.println(pair + "\t" + errorSign);
-			} else {
-				System.out.println(pair);
-			}
-			
-			srilm.readLine();
-
-		}		
+		this.srilm = new SrilmParser(srilm);
+		new FilterRunner(this).processCorpus(corpus);
 	}
 	
 	/** This method prints help.
@@ -66,28 +176,33 @@ public class NgramFilter {
 	 */
 	public static void printHelp() {
 		System.out.println("Use:");
-		System.out.println("NgramFilter srilm_output corpus");
+		System.out.println("NgramFilter [-j number_of_threads] [-v verdict_file] [-s score_file] srilm_output corpus");
+		System.out.println("NgramFilter [-j number_of_threads] [-v verdict_file] [-s score_file] -lm ARPA_character_model [-t] corpus");
+		System.out.println("NgramFilter [-j number_of_threads] [-v verdict_file] [-s score_file] -b binary_character_model [-t] corpus");
 	}
 
 	/** Main method. Checks arguments and sets up input streams and filter object.
 	 * In case of a bad alignment, the filter adds a new field at the end: ErRoR_asciiFilter,
 	 * which is output on the standard output.
 	 * 
-	 * @param args Command line arguments. SRILM output and Corpus, in this order, both required. 
+	 * @param args Command line arguments. SRILM output and Corpus, in this order, both required. The corpus is memory-mapped,
+	 * optional -j number_of_threads decodes it in parallel, optional -v verdict_file is written instead of the output
+	 * (see VerdictFile), optional -s score_file gets the scores (see ScoreFile). Instead of SRILM output, -lm ARPA_character_model 
+	 * or -b binary_character_model scores the sentences in the filter, see configure.
 	 */
 	public static void main(String[] args) {
-		if (args.length == 2) {
-			try {
-				BufferedReader srilm = new BufferedReader(new FileReader(args[0]));
-				BufferedReader corpus = new BufferedReader(new FileReader(args[1]));
-				NgramFilter filter = new NgramFilter();
-				filter.processInputStream(srilm, corpus);
-			}
-			catch (IOException e) {
-				throw new RuntimeException("Error reading input!");
+		NgramFilter filter = new NgramFilter();
+		FilterRunner runner = new FilterRunner(filter);
+		args = runner.readOptions(args);
+		try {
+			if ((args.length < 2) || !filter.configure(Arrays.copyOf(args, args.length - 1))) {
+				printHelp();
+				return;
 			}
-		} else {
-			printHelp();
+			runner.processCorpusFile(args[args.length - 1]);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Error reading input!");
 		}
 		
 
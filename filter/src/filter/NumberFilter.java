@@ -2,26 +2,90 @@ package filter;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.*;
 
-import filter.tools.ExportFormatProcessor;
 import filter.tools.ExportMode;
+import filter.tools.AhoCorasick;
+import filter.tools.SentencePair;
+import filter.tools.Utf8;
 
 /** Implementation of the number filter.
  * 
  * @author Adam Liska
  *
  */
-public class NumberFilter {
+public class NumberFilter implements Filter {
 	
 	HashMap<String, String[]> numberMap;
 	String errorSign = "ErRoR_numberFilter";
 	
+	/** Numbers of the translation map, indexed by the number. */
+	HashMap<String, Integer> numberIds;
+	/** Automaton finding all translations of all numbers. */
+	AhoCorasick translations;
+	/** Number each translation belongs to. */
+	int[] translationNumbers;
+	/** Numbers with an empty translation, which every sentence contains. */
+	boolean[] alwaysTranslated;
+	
 	/** Initializes an empty number translation map. 
 	 * 
 	 */
 	public NumberFilter() {
 		numberMap = new HashMap<String, String[]>();
+		compileMap();
+	}
+	
+	public String getName() {
+		return "number";
+	}
+	
+	public String getErrorSign() {
+		return errorSign;
+	}
+	
+	public ExportMode getMode() {
+		return ExportMode.PLAIN;
+	}
+	
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
+	/** Reads the translation map file if it is given.
+	 * 
+	 * @param args Filter options: -t translation_map_file_path; optional. 
+	 */
+	public boolean configure(String[] args) throws IOException {
+		if ((args.length == 2) && args[0].equals("-t")) {
+			readMap(args[1]);
+			return true;
+		}
+		return args.length == 0;
+	}
+	
+	/** Checks a batch of sentence pairs. Pairs that cannot be evaluated are reported on 
+	 * the standard error output and treated as correct. Pairs without digits in the English sentence 
+	 * are accepted without decoding them.
+	 * 
+	 */
+	public int checkAlignment(SentencePair[] pairs, int count, boolean[] result) {
+		for (int i = 0; i < count; i++) {
+			if (!pairs[i].hasSourceDigits()) {
+				result[i] = true;
+				continue;
+			}
+			String eng = pairs[i].getSource(ExportMode.PLAIN);
+			String cz = pairs[i].getTarget(ExportMode.PLAIN);
+			try {
+				result[i] = checkAlignment(eng, cz);
+			} catch (Exception e) {
+				System.err.println("Error evaluating sentence pair!");
+				System.err.println(eng + "\t" + cz);
+				e.printStackTrace();
+				result[i] = true;
+			}
+		}
+		return count;
 	}
 	
 	/** Processes a number translation map file.
@@ -39,6 +103,37 @@ public class NumberFilter {
 			numberMap.put(number, versions);
 		}
 		in.close();
+		compileMap();
+	}
+	
+	/** Compiles the translations of all numbers into a single automaton.
+	 * 
+	 */
+	void compileMap() {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> patterns = new ArrayList<String>();
+		ArrayList<Integer> owners = new ArrayList<Integer>();
+		boolean[] empty = new boolean[numberMap.size()];
+		for (Map.Entry<String, String[]> entry:numberMap.entrySet()) {
+			int id = ids.size();
+			ids.put(entry.getKey(), id);
+			for (String translation:entry.getValue()) {
+				if (translation.length() == 0) {
+					empty[id] = true;
+				}
+				patterns.add(translation);
+				owners.add(id);
+			}
+		}
+		
+		int[] numbers = new int[owners.size()];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = owners.get(i);
+		}
+		translations = new AhoCorasick(patterns.toArray(new String[patterns.size()]));
+		translationNumbers = numbers;
+		alwaysTranslated = empty;
+		numberIds = ids;
 	}
 	
 	/** Checks whether the sentence pair is correct.
@@ -47,88 +142,129 @@ public class NumberFilter {
 	 * @return true is the alignment is correct, false otherwise
 	 */
 	public boolean checkAlignment(String line) {
-		boolean isCorrect = true;
-		
 		String[] sentences = line.split("\\t");
-		String eng = sentences[0].toLowerCase();
-		String cz = sentences[1].toLowerCase();
-		
-		LinkedList<String> numbers = extractNumbers(eng);
+		return checkAlignment(sentences[0], sentences[1]);
+	}
 	
-		int missing = getNumberOfMissingNumbers(cz, numbers);
+	/** Checks whether the sentence pair is correct. If a number of the English sentence is missing 
+	 * in the Czech sentence (neither the number nor any of its translations occur there), 
+	 * both sentences have to contain the same digits.
+	 * 
+	 * @param eng English sentence
+	 * @param cz Czech (or other language) sentence
+	 * @return true is the alignment is correct, false otherwise
+	 */
+	public boolean checkAlignment(String eng, String cz) {
+		int digits = Utf8.digitMask(eng);
+		if (digits == 0) {
+			// no numbers
+			return true;
+		}
 		
-		if (missing > 0) {
-			if (!containSameNumerals(eng, cz)) {
-				isCorrect = false;
-			}
+		eng = eng.toLowerCase();
+		cz = cz.toLowerCase();
+		if (digits == Utf8.digitMask(cz)) {
+			return true;
 		}
-				
-		return isCorrect;
+		return containsAllNumbers(eng, cz);
 	}
 
-	/** Returns the number of numbers that weren't covered in the Czech segment. 
+	/** Checks whether every number of the English sentence is covered in the Czech segment. 
+	 * The Czech segment is scanned for its numbers and for the translations at most once.
 	 * 
+	 * @param eng English sentence
 	 * @param cz Czech sentence
-	 * @param numbers List of numbers in the English segment
-	 * @return Number of numbers that weren't covered in the Czech segment. 
+	 * @return True if all numbers are covered, false otherwise.
 	 */
-	private int getNumberOfMissingNumbers(String cz, LinkedList<String> numbers) {
-		int missing = 0;
-		for(String number:numbers) {	
-			if (!cz.contains(number)) {
-
-				boolean containsTrans = false;
-				if (numberMap.containsKey(number)) {
-					String[] trans = numberMap.get(number);
-					for (String translation:trans) {
-						if (cz.contains(translation)) {
-							containsTrans = true;
-							break;
-						}						
-					}					
-				}
-
-				if (!containsTrans) {
-					missing++;
+	private boolean containsAllNumbers(String eng, String cz) {
+		ArrayList<String> czNumbers = extractNumbers(cz);
+		boolean[] translated = null;
+		for (String number:extractNumbers(eng)) {
+			if (contains(czNumbers, number)) {
+				continue;
+			}
+			
+			Integer id = numberIds.get(number);
+			if (id == null) {
+				return false;
+			}
+			if (alwaysTranslated[id]) {
+				continue;
+			}
+			if (translated == null) {
+				translated = findTranslatedNumbers(cz);
+			}
+			if (!translated[id]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Finds the numbers of the translation map whose translation occurs in a sentence.
+	 * 
+	 * @param cz Czech sentence
+	 * @return Array indexed by the number ids, true for the translated numbers.
+	 */
+	private boolean[] findTranslatedNumbers(String cz) {
+		boolean[] found = new boolean[translations.size()];
+		boolean[] translated = new boolean[alwaysTranslated.length];
+		if (translations.match(cz, found) > 0) {
+			for (int p = 0; p < found.length; p++) {
+				if (found[p]) {
+					translated[translationNumbers[p]] = true;
 				}
 			}
 		}
-		
-		return missing;
+		return translated;
 	}
-
-	/** Extracts numbers from an English sentence
+	
+	/** Checks whether a number occurs in a sentence. Any occurrence lies within a sequence of digits.
 	 * 
-	 * @param eng English sentence
-	 * @return List of numbers
+	 * @param numbers Sequences of digits of the sentence
+	 * @param number Number
+	 * @return True if the number occurs in the sentence.
 	 */
-	private LinkedList<String> extractNumbers(String eng) {
-		LinkedList<String> numbers = new LinkedList<String>();
-		Pattern p = Pattern.compile("\\d+");
-		Matcher m = p.matcher(eng);
-		while (m.find()) {
-			numbers.add(m.group());
+	private static boolean contains(ArrayList<String> numbers, String number) {
+		for (String n:numbers) {
+			if (n.contains(number)) {
+				return true;
+			}
 		}
-		return numbers;
+		return false;
 	}
 
-	/** Checks whether two sentences contain the same numerals.
+	/** Extracts numbers from a sentence
 	 * 
-	 * @param eng English sentence
-	 * @param cz Czech sentence
-	 * @return True if they containt the same numerals, false otherwise.
+	 * @param sentence Sentence
+	 * @return List of numbers
 	 */
-	private boolean containSameNumerals(String eng, String cz) {
-		boolean sameNumChar = true;
-		Integer i = 0;
-		while (i < 10) {
-			if ((cz.contains(i.toString()) && !eng.contains(i.toString())) || (!cz.contains(i.toString()) && eng.contains(i.toString()))) {
-				sameNumChar = false;
-				break;
+	private static ArrayList<String> extractNumbers(String sentence) {
+		ArrayList<String> numbers = new ArrayList<String>();
+		int length = sentence.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++) {
+			boolean digit = (i < length) && isDigit(sentence.charAt(i));
+			if (digit && (start < 0)) {
+				start = i;
+			} else if (!digit && (start >= 0)) {
+				numbers.add(sentence.substring(start, i));
+				start = -1;
 			}
-			i++;
 		}
-		return sameNumChar;
+		return numbers;
+	}
+	
+	private static boolean isDigit(char c) {
+		return (c >= '0') && (c <= '9');
+	}
+	
+	/** Prints help.
+	 * 
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("NumberFilter [-t translation_map_file] [-j number_of_threads] [-i export_format_corpus] [-v verdict_file]");
 	}
 	
 	/** Reads sentence pairs from the standard input and processes them. Expected format of the input: 
@@ -141,30 +277,20 @@ public class NumberFilter {
 	 * @param args Command line arguments. This program takes one optional argument - translation map file path. 
 	 * The file is in the following format:
 	 * number \t trans1,trans2,trans3,...,
-	 * having one number per line.
+	 * having one number per line. Optional -j number_of_threads checks the pairs in parallel, 
+	 * optional -i export_format_corpus is memory-mapped and read instead of the standard input,
+	 * optional -v verdict_file is written instead of the output (see VerdictFile).
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
 		NumberFilter filter = new NumberFilter(); 
-		ExportFormatProcessor reader = new ExportFormatProcessor(ExportMode.PLAIN); 
+		FilterRunner runner = new FilterRunner(filter);
 		
-		if ((args.length == 2) && args[0].equals("-t")) {
-			filter.readMap(args[1]);
+		if (!filter.configure(runner.readOptions(args))) {
+			printHelp();
+			return;
 		}
 		
-		String line;
-		while((line = reader.readLine()) != null) {
-			try {
-				if (!filter.checkAlignment(line)) {
-					System.out.println(line + "\t" + filter.errorSign);
-				} else {
-					System.out.println(line);
-				}
-			} catch (Exception e) {
-				System.out.println("Error evaluating sentence pair!");
-				System.out.println(line);
-				e.printStackTrace();
-			}
-		}
+		runner.processInputStream();
 	}	
 }
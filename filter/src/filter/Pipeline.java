@@ -0,0 +1,220 @@
+package filter;
+
+import java.io.*;
+import java.util.*;
+
+import filter.tools.ExportMode;
+import filter.tools.ScoreFile;
+import filter.tools.VerdictFile;
+
+/** Runs several filters in a single pass over a Czeng 0.9 Export Format corpus.
+ *
+ * Every line is parsed only once, each configured filter checks the sentence pair
+ * and the combined output line is written directly, in the same format as filtrum.Combine produces:
+ * english_segment \t czech(or_other)_segment \t ErRoR_firstFilter|ErRoR_secondFilter
+ * If a verdict file prefix is set, the verdicts of every filter are written into its own verdict file instead,
+ * prefix.filter_name, see VerdictFile. If a score file prefix is set, the scores of every scoring filter
+ * are written into its score file prefix.filter_name as well, see ScoreFile.
+ *
+ * @author Adam Liska
+ *
+ */
+public class Pipeline extends BatchProcessor {
+
+	ArrayList<Filter> filters;
+	VerdictFile.Writer[] verdictWriters;
+	/** Score file writers, null for the filters which don't compute scores. */
+	ScoreFile.Writer[] scoreWriters;
+	long checksum = VerdictFile.EMPTY_CHECKSUM;
+
+	/** Initialises a pipeline without filters.
+	 *
+	 */
+	public Pipeline() {
+		filters = new ArrayList<Filter>();
+	}
+
+	/** Finds a filter implementation by its name.
+	 *
+	 * @param name Filter name, e.g. ascii.
+	 * @return New filter instance, null if there is no such filter.
+	 */
+	public static Filter getFilter(String name) {
+		for(Filter filter:ServiceLoader.load(Filter.class)) {
+			if (filter.getName().equals(name)) {
+				return filter;
+			}
+		}
+		return null;
+	}
+
+	/** Adds a filter to the pipeline.
+	 *
+	 * @param name Filter name: ascii, number, dictionary, giza or ngram.
+	 * @param args Filter arguments, the same as the filter's own program takes (without the corpus).
+	 * @throws IOException Exception if there is an error reading filter data.
+	 */
+	public void addFilter(String name, String[] args) throws IOException {
+		Filter filter = getFilter(name);
+		if (filter == null) {
+			throw new IllegalArgumentException("Unknown filter: " + name + "!");
+		}
+		if (!filter.configure(args)) {
+			throw new IllegalArgumentException("Incorrect options of filter: " + name + "!");
+		}
+		filters.add(filter);
+	}
+
+	protected List<Filter> getFilters() {
+		return filters;
+	}
+
+	/** Writes plain sentence pairs followed by the list of errors, separated by |, or the verdicts of the filters.
+	 *
+	 */
+	protected boolean write(Batch batch, BufferedWriter out) throws IOException {
+		for(int f = 0; f < filters.size(); f++) {
+			if (batch.checked[f] < batch.count) {
+				throw new RuntimeException("Input of filter " + filters.get(f).getName() + " is shorter than the corpus!");
+			}
+		}
+
+		if ((verdicts != null) || (scoreFile != null)) {
+			openFiles();
+			for(int i = 0; i < batch.count; i++) {
+				checksum = VerdictFile.hash(checksum, batch.pairs[i].getPair(ExportMode.PLAIN));
+			}
+			for(int f = 0; f < filters.size(); f++) {
+				if ((scoreWriters != null) && (scoreWriters[f] != null)) {
+					for(int i = 0; i < batch.count; i++) {
+						scoreWriters[f].add(batch.scores[f][i]);
+					}
+				}
+			}
+			if (verdictWriters != null) {
+				for(int i = 0; i < batch.count; i++) {
+					for(int f = 0; f < filters.size(); f++) {
+						verdictWriters[f].add(!batch.results[f][i]);
+					}
+				}
+				return true;
+			}
+		}
+
+		for(int i = 0; i < batch.count; i++) {
+			out.write(batch.pairs[i].getPair(ExportMode.PLAIN));
+			boolean first = true;
+			for(int f = 0; f < filters.size(); f++) {
+				if (!batch.results[f][i]) {
+					out.write(first ? "\t" : "|");
+					out.write(filters.get(f).getErrorSign());
+					first = false;
+				}
+			}
+			out.newLine();
+		}
+		return true;
+	}
+
+	/** Writes the headers of the verdict and score files.
+	 *
+	 */
+	protected void finish(BufferedWriter out) throws IOException {
+		if ((verdicts != null) || (scoreFile != null)) {
+			openFiles();
+			for(int f = 0; f < filters.size(); f++) {
+				if (verdictWriters != null) {
+					verdictWriters[f].close(checksum);
+				}
+				if ((scoreWriters != null) && (scoreWriters[f] != null)) {
+					scoreWriters[f].close(checksum);
+				}
+			}
+		}
+		super.finish(out);
+	}
+
+	/** Creates the verdict files of all filters and the score files of the scoring filters.
+	 *
+	 */
+	private void openFiles() throws IOException {
+		if ((verdicts != null) && (verdictWriters == null)) {
+			verdictWriters = new VerdictFile.Writer[filters.size()];
+			for(int f = 0; f < filters.size(); f++) {
+				Filter filter = filters.get(f);
+				verdictWriters[f] = new VerdictFile.Writer(verdicts + "." + filter.getName(), filter.getName(), filter.getErrorSign());
+			}
+		}
+		if ((scoreFile != null) && (scoreWriters == null)) {
+			scoreWriters = new ScoreFile.Writer[filters.size()];
+			for(int f = 0; f < filters.size(); f++) {
+				Filter filter = filters.get(f);
+				if (filter instanceof ScoringFilter) {
+					scoreWriters[f] = new ScoreFile.Writer(scoreFile + "." + filter.getName(), filter.getName(), filter.getErrorSign(), 
+							((ScoringFilter) filter).getThreshold());
+				}
+			}
+		}
+	}
+
+	/** Reads Export Format lines from the standard input (or from the input file if it was set) and outputs the combined result on the standard output.
+	 *
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void processInputStream() throws IOException {
+		processInput(true, new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("Pipeline [-j number_of_threads] [-i export_format_corpus] [-v verdict_file_prefix] [-s score_file_prefix] filter[:arg1,arg2,...] [filter[:arg1,arg2,...] ...] < export_format_corpus > combined_output");
+		System.out.println("Filters:");
+		System.out.println("ascii");
+		System.out.println("number[:-t,translation_map_file]");
+		System.out.println("dictionary:-d,dictionary_file[,-g,giza_dictionary_file] or dictionary:-b,binary_dictionary_file");
+		System.out.println("giza:[-f,][-u,max_unaligned_ratio,][-m,max_fertility,][-c,max_crossing_density,]GIZA_firstLang_secondLang_file,GIZA_secondLang_firstLang_file");
+		System.out.println("ngram:srilm_output or ngram:-lm,ARPA_character_model[,-t] or ngram:-b,binary_character_model[,-t]");
+	}
+
+	/** Main method. Sets up the filters and processes the standard input.
+	 *
+	 * @param args Command line arguments. Optional -j number_of_threads, -i export_format_corpus 
+	 * (memory-mapped instead of reading the standard input), -v verdict_file_prefix (verdict files prefix.filter_name
+	 * written instead of the combined output) and -s score_file_prefix (score files prefix.filter_name of the scoring filters), 
+	 * then one argument per filter, 
+	 * filter name optionally followed by a colon and a comma separated list of the filter arguments.
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			printHelp();
+			return;
+		}
+
+		Pipeline pipeline = new Pipeline();
+		try {
+			for(String arg:pipeline.readOptions(args)) {
+				int colon = arg.indexOf(':');
+				if (colon < 0) {
+					pipeline.addFilter(arg, new String[0]);
+				} else {
+					pipeline.addFilter(arg.substring(0, colon), arg.substring(colon + 1).split(","));
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			printHelp();
+			return;
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading filter input!");
+		}
+
+		try {
+			pipeline.processInputStream();
+		} catch (IOException e) {
+			throw new RuntimeException("Error processing input stream!");
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package filter;
+
+import java.io.IOException;
+
+import filter.tools.SentencePair;
+
+/** Filter computing a score of every sentence pair, a pair is incorrect if its score is lower than the threshold.
+ * The scores can be written into a score file (see filter.tools.ScoreFile), so that other thresholds
+ * are applied by filtrum.Thresholds without running the filter again.
+ *
+ * @author Adam Liska
+ *
+ */
+public interface ScoringFilter extends Filter {
+
+	/** Returns the threshold of the scores.
+	 *
+	 * @return Threshold, pairs with lower scores are incorrect.
+	 */
+	double getThreshold();
+
+	/** Checks a batch of sentence pairs and returns their scores.
+	 *
+	 * @param pairs Sentence pairs.
+	 * @param count Number of sentence pairs in the batch.
+	 * @param result Array for the results: true for a correct pair, false otherwise.
+	 * @param scores Array for the scores. NaN stands for pairs which are correct with any threshold
+	 * (e.g. too short to be scored), negative infinity for pairs which are incorrect with any threshold.
+	 * @return Number of checked pairs; less than count only if additional filter input has ended.
+	 * @throws IOException Exception if there is an error reading additional filter input.
+	 */
+	int checkAlignment(SentencePair[] pairs, int count, boolean[] result, double[] scores) throws IOException;
+}
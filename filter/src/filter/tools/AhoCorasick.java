@@ -0,0 +1,160 @@
+package filter.tools;
+
+import java.util.*;
+
+/** Aho-Corasick automaton finding all occurrences of a fixed set of strings in a text in a single scan.
+ * The automaton is immutable once built, so it can be shared by several threads.
+ *
+ * @author Adam Liska
+ *
+ */
+public class AhoCorasick {
+
+	static final int[] NONE = new int[0];
+
+	/** Labels of the transitions of each state, sorted. */
+	char[][] labels;
+	/** Targets of the transitions of each state, in the order of the labels. */
+	int[][] targets;
+	int[] fail;
+	/** Patterns recognised in each state, including those of its suffixes. */
+	int[][] outputs;
+	int patterns;
+
+	/** Builds the automaton.
+	 *
+	 * @param patterns Searched strings; empty strings are never reported.
+	 */
+	public AhoCorasick(String[] patterns) {
+		this.patterns = patterns.length;
+
+		// trie
+		ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		ArrayList<int[]> found = new ArrayList<int[]>();
+		trie.add(new TreeMap<Character, Integer>());
+		found.add(NONE);
+		for (int p = 0; p < patterns.length; p++) {
+			if (patterns[p].length() == 0) {
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < patterns[p].length(); i++) {
+				Character c = patterns[p].charAt(i);
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.get(state).put(c, next);
+					trie.add(new TreeMap<Character, Integer>());
+					found.add(NONE);
+				}
+				state = next;
+			}
+			found.set(state, append(found.get(state), p));
+		}
+
+		int states = trie.size();
+		labels = new char[states][];
+		targets = new int[states][];
+		for (int s = 0; s < states; s++) {
+			TreeMap<Character, Integer> edges = trie.get(s);
+			labels[s] = new char[edges.size()];
+			targets[s] = new int[edges.size()];
+			int e = 0;
+			for (Map.Entry<Character, Integer> edge:edges.entrySet()) {
+				labels[s][e] = edge.getKey();
+				targets[s][e] = edge.getValue();
+				e++;
+			}
+		}
+
+		// failure links in breadth-first order, so that the links of shorter suffixes are ready
+		fail = new int[states];
+		outputs = new int[states][];
+		outputs[0] = NONE;
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int t:targets[0]) {
+			queue[tail++] = t;
+			outputs[t] = found.get(t);
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			for (int e = 0; e < labels[s].length; e++) {
+				int t = targets[s][e];
+				int f = fail[s];
+				int next;
+				while (((next = step(f, labels[s][e])) < 0) && (f != 0)) {
+					f = fail[f];
+				}
+				fail[t] = (next < 0) ? 0 : next;
+				outputs[t] = merge(found.get(t), outputs[fail[t]]);
+				queue[tail++] = t;
+			}
+		}
+	}
+
+	/** Finds the patterns occurring in a text.
+	 *
+	 * @param text Text
+	 * @param result Array the occurring patterns are marked in, indexed by the pattern number.
+	 * @return Number of newly marked patterns.
+	 */
+	public int match(CharSequence text, boolean[] result) {
+		int marked = 0;
+		int state = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			int next;
+			while (((next = step(state, c)) < 0) && (state != 0)) {
+				state = fail[state];
+			}
+			state = (next < 0) ? 0 : next;
+			for (int p:outputs[state]) {
+				if (!result[p]) {
+					result[p] = true;
+					marked++;
+				}
+			}
+		}
+		return marked;
+	}
+
+	/** Returns the number of patterns.
+	 *
+	 * @return Number of patterns the automaton was built from.
+	 */
+	public int size() {
+		return patterns;
+	}
+
+	/** Follows a transition.
+	 *
+	 * @param state State
+	 * @param c Character
+	 * @return Next state, -1 if there is no such transition.
+	 */
+	private int step(int state, char c) {
+		int e = Arrays.binarySearch(labels[state], c);
+		return (e < 0) ? -1 : targets[state][e];
+	}
+
+	private static int[] append(int[] values, int value) {
+		int[] result = Arrays.copyOf(values, values.length + 1);
+		result[values.length] = value;
+		return result;
+	}
+
+	private static int[] merge(int[] first, int[] second) {
+		if (second.length == 0) {
+			return first;
+		}
+		if (first.length == 0) {
+			return second;
+		}
+		int[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -0,0 +1,214 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** Back-off language model read from an ARPA file and kept in memory.
+ *
+ * The histories are stored as a trie of reversed word sequences, the closest word first,
+ * so that every history is found by extending the shorter one. A history node holds
+ * its back-off weight, the probabilities are stored under the history node and the predicted word.
+ * Children and probabilities are kept in primitive hash maps keyed by node << 32 | word.
+ *
+ * @author Adam Liska
+ *
+ */
+public class ArpaModel implements LanguageModel {
+
+	int order;
+	HashMap<String, Integer> indices;
+	ArrayList<String> words;
+	/** Child history nodes, node 0 is the empty history. */
+	LongIntMap children;
+	double[] backoffs;
+	int nodes;
+	LongDoubleMap probabilities;
+
+	/** Reads an ARPA file.
+	 *
+	 * @param file ARPA file path
+	 * @throws IOException Exception if there is an error reading the file or it isn't an ARPA file.
+	 */
+	public ArpaModel(String file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Utf8.UTF8), 1 << 16);
+		try {
+			read(in, file);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void read(BufferedReader in, String file) throws IOException {
+		String line;
+		while (((line = in.readLine()) != null) && !line.trim().equals("\\data\\")) {
+		}
+		ArrayList<Integer> counts = new ArrayList<Integer>();
+		while (((line = in.readLine()) != null) && line.startsWith("ngram ")) {
+			counts.add(Integer.parseInt(line.substring(line.indexOf('=') + 1).trim()));
+		}
+		if (counts.isEmpty()) {
+			throw new IOException("Not an ARPA file: " + file);
+		}
+		order = counts.size();
+		int total = 0;
+		for(int count:counts) {
+			total += count;
+		}
+		indices = new HashMap<String, Integer>(2 * counts.get(0));
+		words = new ArrayList<String>(counts.get(0));
+		children = new LongIntMap(total);
+		backoffs = new double[total + 1];
+		nodes = 1;
+		probabilities = new LongDoubleMap(total);
+
+		int n = 0;
+		int[] ngram = new int[order];
+		int[] fields = new int[2 * (order + 2)];
+		while ((line = in.readLine()) != null) {
+			if (line.startsWith("\\")) {
+				if (line.trim().equals("\\end\\")) {
+					return;
+				}
+				n = Integer.parseInt(line.substring(1, line.indexOf('-')));
+				if ((n < 1) || (n > order)) {
+					throw new IOException("Unexpected section " + line + " in " + file);
+				}
+				continue;
+			}
+			int count = split(line, fields);
+			if (count == 0) {
+				continue;
+			}
+			if ((n == 0) || (count < n + 1) || (count > n + 2)) {
+				throw new IOException("Malformed n-gram line in " + file + ": " + line);
+			}
+			for (int i = 0; i < n; i++) {
+				ngram[i] = addWord(line.substring(fields[2 * i + 2], fields[2 * i + 3]));
+			}
+			int history = 0;
+			for (int i = n - 2; i >= 0; i--) {
+				history = getChild(history, ngram[i]);
+			}
+			probabilities.put(key(history, ngram[n - 1]), parseLogProbability(line, fields[0], fields[1]));
+			if (count == n + 2) {
+				int node = 0;
+				for (int i = n - 1; i >= 0; i--) {
+					node = getChild(node, ngram[i]);
+				}
+				backoffs[node] = parseLogProbability(line, fields[2 * n + 2], fields[2 * n + 3]);
+			}
+		}
+		throw new IOException("Unexpected end of ARPA file: " + file);
+	}
+
+	/** Finds the whitespace separated fields of a line.
+	 *
+	 * @param line Line
+	 * @param fields Array for the start and end of each field, extra fields are counted but not stored.
+	 * @return Number of fields
+	 */
+	private static int split(String line, int[] fields) {
+		int count = 0;
+		int length = line.length();
+		int i = 0;
+		while (i < length) {
+			while ((i < length) && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i == length) {
+				break;
+			}
+			int start = i;
+			while ((i < length) && !Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (2 * count + 1 < fields.length) {
+				fields[2 * count] = start;
+				fields[2 * count + 1] = i;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private static double parseLogProbability(String line, int from, int to) {
+		String value = line.substring(from, to);
+		if (value.equals("-inf")) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Double.parseDouble(value);
+	}
+
+	private int addWord(String word) {
+		Integer index = indices.get(word);
+		if (index == null) {
+			index = words.size();
+			indices.put(word, index);
+			words.add(word);
+		}
+		return index;
+	}
+
+	private int getChild(int node, int word) {
+		long key = key(node, word);
+		int child = children.get(key, -1);
+		if (child < 0) {
+			child = nodes++;
+			if (child == backoffs.length) {
+				double[] grown = new double[2 * backoffs.length];
+				System.arraycopy(backoffs, 0, grown, 0, backoffs.length);
+				backoffs = grown;
+			}
+			children.put(key, child);
+		}
+		return child;
+	}
+
+	private static long key(int node, int word) {
+		return ((long) node << 32) | word;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public int size() {
+		return words.size();
+	}
+
+	public String getWord(int index) {
+		return words.get(index);
+	}
+
+	public int getIndex(String word) {
+		Integer index = indices.get(word);
+		return (index == null) ? UNKNOWN : index;
+	}
+
+	public double getProbability(int word, int[] history, int length) {
+		double probability = probabilities.get(key(0, word), Double.NaN);
+		if (Double.isNaN(probability)) {
+			return probability;
+		}
+		double backoff = 0;
+		int node = 0;
+		for (int i = length - 1; i >= Math.max(0, length - order + 1); i--) {
+			if (history[i] == UNKNOWN) {
+				break;
+			}
+			node = children.get(key(node, history[i]), -1);
+			if (node < 0) {
+				break;
+			}
+			double longer = probabilities.get(key(node, word), Double.NaN);
+			if (Double.isNaN(longer)) {
+				backoff += backoffs[node];
+			} else {
+				probability = longer;
+				backoff = 0;
+			}
+		}
+		return probability + backoff;
+	}
+}
@@ -0,0 +1,214 @@
+package filter.tools;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/** Scoring of sentences with a character language model, in the same way as SRILM Toolkit scores
+ * the output of SeparateChars: the words are lowercased, &amp;pipe words are dropped, every character is a token
+ * and every word is followed by a SpAcE token. The tokens are taken directly from the code points of the sentence.
+ *
+ * @author Adam Liska
+ *
+ */
+public class CharacterScorer {
+
+	/** Token following every word. */
+	public static final String SPACE = "SpAcE";
+	/** Word dropped from the sentences. */
+	public static final String PIPE = "&pipe";
+	/** Value standing for the SpAcE token among code points, above the range of Unicode code points. */
+	public static final int SPACE_CODE_POINT = Character.MAX_CODE_POINT + 1;
+
+	/** Code points of the tokens of a sentence. A single instance is reused for many sentences.
+	 *
+	 */
+	public static class CodePoints {
+		public int[] values = new int[256];
+		public int length;
+
+		void add(int codePoint) {
+			if (length == values.length) {
+				values = Arrays.copyOf(values, 2 * length);
+			}
+			values[length++] = codePoint;
+		}
+	}
+
+	/** Counts and probability of a scored sentence, the same as SRILM Toolkit prints.
+	 * A single instance is reused for many sentences.
+	 *
+	 */
+	public static class Score {
+		/** Number of tokens, without the sentence start and end. */
+		public int characters;
+		/** Number of tokens without a probability. */
+		public int oovs;
+		/** Number of tokens with zero probability. */
+		public int zeroProbabilities;
+		/** Log10 probability of the tokens and the sentence end. */
+		public double logProbability;
+		CodePoints codePoints = new CodePoints();
+		int[] tokens = new int[258];
+	}
+
+	LanguageModel model;
+	/** Token indices of the characters of the Basic Multilingual Plane. */
+	int[] characters;
+	/** Token indices of the other code points. */
+	HashMap<Integer, Integer> supplementary;
+	int space;
+	int start;
+	int end;
+	/** Lowercasing of the default locale differs from Character.toLowerCase. */
+	static final boolean LOCALE_CASING = hasLocaleCasing();
+
+	/** Looks up the tokens of the model.
+	 *
+	 * @param model Character language model
+	 */
+	public CharacterScorer(LanguageModel model) {
+		this.model = model;
+		characters = new int[Character.MAX_VALUE + 1];
+		Arrays.fill(characters, LanguageModel.UNKNOWN);
+		supplementary = new HashMap<Integer, Integer>();
+		for (int i = 0; i < model.size(); i++) {
+			String word = model.getWord(i);
+			if ((word.length() == 0) || (word.codePointCount(0, word.length()) != 1)) {
+				continue;
+			}
+			int codePoint = word.codePointAt(0);
+			if (codePoint <= Character.MAX_VALUE) {
+				characters[codePoint] = i;
+			} else {
+				supplementary.put(codePoint, i);
+			}
+		}
+		space = model.getIndex(SPACE);
+		start = model.getIndex(LanguageModel.SENTENCE_START);
+		end = model.getIndex(LanguageModel.SENTENCE_END);
+	}
+
+	private static boolean hasLocaleCasing() {
+		String language = Locale.getDefault().getLanguage();
+		return language.equals("tr") || language.equals("az") || language.equals("lt");
+	}
+
+	/** Scores a sentence.
+	 *
+	 * @param sentence Sentence, words separated by spaces.
+	 * @param score Reused object for the result.
+	 */
+	public void score(String sentence, Score score) {
+		CodePoints codePoints = score.codePoints;
+		separate(sentence, codePoints);
+		int length = codePoints.length + 2;
+		if (score.tokens.length < length) {
+			score.tokens = new int[codePoints.values.length + 2];
+		}
+		int[] tokens = score.tokens;
+		tokens[0] = start;
+		for (int i = 0; i < codePoints.length; i++) {
+			tokens[i + 1] = getToken(codePoints.values[i]);
+		}
+		tokens[length - 1] = end;
+
+		score.characters = codePoints.length;
+		score.oovs = 0;
+		score.zeroProbabilities = 0;
+		score.logProbability = 0;
+		for (int i = 1; i < length; i++) {
+			int token = tokens[i];
+			double probability = (token == LanguageModel.UNKNOWN) ? Double.NaN : model.getProbability(token, tokens, i);
+			if (Double.isNaN(probability)) {
+				score.oovs++;
+			} else if (probability == Double.NEGATIVE_INFINITY) {
+				score.zeroProbabilities++;
+			} else {
+				score.logProbability += probability;
+			}
+		}
+	}
+
+	/** Splits a sentence into tokens the same way as SeparateChars: the words are lowercased, 
+	 * &amp;pipe words are dropped, every character is a token and every word is followed by SpAcE.
+	 *
+	 * @param sentence Sentence, words separated by spaces.
+	 * @param codePoints Reused object for the code points of the tokens, SPACE_CODE_POINT stands for SpAcE.
+	 */
+	public static void separate(String sentence, CodePoints codePoints) {
+		codePoints.length = 0;
+		int length = sentence.length();
+		if (length == 0) {
+			// an empty line is a single empty word, as String.split gives
+			codePoints.add(SPACE_CODE_POINT);
+			return;
+		}
+		// trailing empty words are dropped, as String.split does
+		while ((length > 0) && (sentence.charAt(length - 1) == ' ')) {
+			length--;
+		}
+		int from = 0;
+		while (from < length) {
+			int to = sentence.indexOf(' ', from);
+			if ((to < 0) || (to > length)) {
+				to = length;
+			}
+			addWord(sentence, from, to, codePoints);
+			from = to + 1;
+		}
+	}
+
+	/** Adds the tokens of a word.
+	 *
+	 * @param sentence Sentence
+	 * @param from Word start
+	 * @param to Word end
+	 * @param codePoints Code points of the tokens
+	 */
+	private static void addWord(String sentence, int from, int to, CodePoints codePoints) {
+		if ((to - from == PIPE.length()) && sentence.startsWith(PIPE, from)) {
+			return;
+		}
+		if (LOCALE_CASING || hasSpecialCasing(sentence, from, to)) {
+			String word = sentence.substring(from, to).toLowerCase();
+			for (int i = 0; i < word.length(); ) {
+				int codePoint = word.codePointAt(i);
+				codePoints.add(codePoint);
+				i += Character.charCount(codePoint);
+			}
+		} else {
+			for (int i = from; i < to; ) {
+				int codePoint = sentence.codePointAt(i);
+				codePoints.add(Character.toLowerCase(codePoint));
+				i += Character.charCount(codePoint);
+			}
+		}
+		codePoints.add(SPACE_CODE_POINT);
+	}
+
+	/** Checks whether a word contains characters whose lowercase form depends on their context,
+	 * capital I with dot above and capital sigma.
+	 *
+	 */
+	private static boolean hasSpecialCasing(String sentence, int from, int to) {
+		for (int i = from; i < to; i++) {
+			char c = sentence.charAt(i);
+			if ((c == '\u0130') || (c == '\u03a3')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getToken(int codePoint) {
+		if (codePoint == SPACE_CODE_POINT) {
+			return space;
+		}
+		if (codePoint <= Character.MAX_VALUE) {
+			return characters[codePoint];
+		}
+		Integer token = supplementary.get(codePoint);
+		return (token == null) ? LanguageModel.UNKNOWN : token;
+	}
+}
@@ -0,0 +1,150 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+
+import filter.DictionaryFilter;
+
+/** Compiles the dictionaries of the dictionary filter (slovnik.zcu.cz text dictionary and
+ * GIZA dictionary produced by GizaTranslations) into a single binary dictionary read by MappedDictionary.
+ * The match keys of the translations are computed in advance and stored only once.
+ *
+ * @author Adam Liska
+ *
+ */
+public class DictionaryCompiler {
+
+	/** Writes a binary dictionary.
+	 *
+	 * @param dictionary Words and their translations
+	 * @param file Output file path
+	 * @throws IOException Exception if there is an error writing the file.
+	 */
+	public static void compile(Map<String, ? extends Collection<String>> dictionary, String file) throws IOException {
+		// words sorted by their UTF-8 bytes
+		String[] words = dictionary.keySet().toArray(new String[dictionary.size()]);
+		final byte[][] bytes = new byte[words.length][];
+		Integer[] order = new Integer[words.length];
+		for (int w = 0; w < words.length; w++) {
+			bytes[w] = words[w].getBytes(Utf8.UTF8);
+			order[w] = w;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer first, Integer second) {
+				byte[] a = bytes[first];
+				byte[] b = bytes[second];
+				int common = Math.min(a.length, b.length);
+				for (int i = 0; i < common; i++) {
+					int difference = (a[i] & 0xff) - (b[i] & 0xff);
+					if (difference != 0) {
+						return difference;
+					}
+				}
+				return a.length - b.length;
+			}
+		});
+
+		// distinct match keys of each word, the word itself included, pooled across all words
+		LinkedHashMap<String, Integer> keyIds = new LinkedHashMap<String, Integer>();
+		int[] referenceOffsets = new int[words.length + 1];
+		int[] references = new int[16];
+		int referenceCount = 0;
+		LinkedHashSet<String> wordKeys = new LinkedHashSet<String>();
+		for (int w = 0; w < words.length; w++) {
+			String word = words[order[w]];
+			wordKeys.clear();
+			for (String translation:dictionary.get(word)) {
+				wordKeys.add(MatchKeys.getMatchKey(translation));
+			}
+			wordKeys.add(MatchKeys.getMatchKey(word));
+
+			referenceOffsets[w] = referenceCount;
+			for (String key:wordKeys) {
+				Integer id = keyIds.get(key);
+				if (id == null) {
+					id = keyIds.size();
+					keyIds.put(key, id);
+				}
+				if (referenceCount == references.length) {
+					references = Arrays.copyOf(references, 2 * referenceCount);
+				}
+				references[referenceCount++] = id;
+			}
+		}
+		referenceOffsets[words.length] = referenceCount;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MappedDictionary.MAGIC);
+		out.writeInt(MappedDictionary.VERSION);
+		out.writeInt(words.length);
+		out.writeInt(keyIds.size());
+		out.writeInt(referenceCount);
+		long wordBytes = 0;
+		for (byte[] word:bytes) {
+			wordBytes += word.length;
+		}
+		if (wordBytes + 17L * (words.length + referenceCount + keyIds.size()) > Integer.MAX_VALUE) {
+			out.close();
+			throw new IOException("Dictionary is too large for a binary dictionary!");
+		}
+		out.writeInt((int) wordBytes);
+
+		int offset = 0;
+		for (Integer w:order) {
+			out.writeInt(offset);
+			offset += bytes[w].length;
+		}
+		out.writeInt(offset);
+		for (int r:referenceOffsets) {
+			out.writeInt(r);
+		}
+		for (int r = 0; r < referenceCount; r++) {
+			out.writeInt(references[r]);
+		}
+		for (String key:keyIds.keySet()) {
+			out.writeLong(MatchKeys.pack(key, 0, key.length()));
+		}
+		for (String key:keyIds.keySet()) {
+			out.writeByte(key.length());
+		}
+		for (Integer w:order) {
+			out.write(bytes[w]);
+		}
+		out.close();
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("DictionaryCompiler -d dictionary_file [-g giza_dictionary_file] -o binary_dictionary_file");
+		System.out.println("DictionaryCompiler -g giza_dictionary_file [-d dictionary_file] -o binary_dictionary_file");
+	}
+
+	/** Reads the dictionaries the same way DictionaryFilter does and writes the binary dictionary.
+	 * The binary dictionary is then used with DictionaryFilter -b binary_dictionary_file.
+	 *
+	 * @param args Command line arguments: -d dictionary_file_path and/or -g giza_dictionary_file_path
+	 * (read in the given order), -o output_file_path.
+	 * @throws IOException Exception if there is an error writing the output.
+	 */
+	public static void main(String[] args) throws IOException {
+		String output = null;
+		ArrayList<String> rest = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && (i + 1 < args.length)) {
+				output = args[++i];
+			} else {
+				rest.add(args[i]);
+			}
+		}
+
+		DictionaryFilter filter = new DictionaryFilter();
+		if ((output == null) || rest.contains("-b") || !filter.configure(rest.toArray(new String[rest.size()]))) {
+			printHelp();
+			return;
+		}
+		compile(filter.getDictionary(), output);
+	}
+}
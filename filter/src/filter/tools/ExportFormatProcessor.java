@@ -1,6 +1,7 @@
 package filter.tools;
 
 import java.io.*;
+import java.util.Iterator;
 
 /** Implementation of a Czeng 0.9 Export Format processor.
  * 
@@ -11,10 +12,32 @@ public class ExportFormatProcessor {
 	
 	ExportMode mode;
 	BufferedReader reader;
+	StringBuilder buffer;
+	int[] bounds;
+	MappedCorpus corpus;
+	Iterator<MappedCorpus.Chunk> chunks;
+	String[] lines;
+	int nextLine;
 	
 	public ExportFormatProcessor(ExportMode mode) {
 		this.mode = mode;
 		reader = new BufferedReader(new InputStreamReader(System.in));
+		buffer = new StringBuilder();
+		bounds = new int[4];
+	}
+	
+	/** Sets up a processor reading a memory-mapped Export Format file instead of the standard input.
+	 * 
+	 * @param mode Mode, i.e. what's to extract.
+	 * @param file Export Format file path
+	 * @throws IOException
+	 */
+	public ExportFormatProcessor(ExportMode mode, String file) throws IOException {
+		this(mode);
+		reader = null;
+		corpus = new MappedCorpus(file);
+		chunks = corpus.split(MappedCorpus.CHUNK_SIZE).iterator();
+		lines = new String[0];
 	}
 	
 	/** Returns a processed line.
@@ -23,7 +46,19 @@ public class ExportFormatProcessor {
 	 * @throws IOException
 	 */
 	public String readLine() throws IOException {
-		String input = reader.readLine();
+		String input;
+		if (reader != null) {
+			input = reader.readLine();
+		} else {
+			while ((nextLine == lines.length) && chunks.hasNext()) {
+				lines = chunks.next().readLines();
+				nextLine = 0;
+			}
+			input = (nextLine < lines.length) ? lines[nextLine++] : null;
+			if (input == null) {
+				close();
+			}
+		}
 		
 		if (input == null) {
 			return null;
@@ -33,21 +68,84 @@ public class ExportFormatProcessor {
 		
 	}
 	
+	/** Closes the memory-mapped Export Format file, if it is read. It is closed after its last line is read as well.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (corpus != null) {
+			corpus.close();
+			corpus = null;
+		}
+	}
+	
 	/** Processes a line of Export Format file
 	 * 
 	 * @param line Input line
-	 * @param mode Mode, i.e. what's to extract.
 	 * @return String with extracted sentence pair
 	 */
 	private String processLine(String line) {
-		String[] input = line.split("\\t");
-		
-		StringBuilder result = new StringBuilder();
-		result.append(extract(input[1]));
-		result.append("\t");
-		result.append(extract(input[5]));
-		
-		return result.toString();
+		findSentences(line, bounds);
+		buffer.setLength(0);
+		extract(line, bounds[0], bounds[1], mode, buffer);
+		buffer.append('\t');
+		extract(line, bounds[2], bounds[3], mode, buffer);
+		return buffer.toString();
+	}
+	
+	/** Finds the factored sentences of the pair (columns 1 and 5) in a line of Export Format file.
+	 * 
+	 * @param line Input line
+	 * @param bounds Array for the sentence positions: first sentence start, first sentence end, 
+	 * second sentence start, second sentence end.
+	 */
+	public static void findSentences(String line, int[] bounds) {
+		int column = 0;
+		int start = 0;
+		int length = line.length();
+		for (int i = 0; i <= length; i++) {
+			if ((i == length) || (line.charAt(i) == '\t')) {
+				if (column == 1) {
+					bounds[0] = start;
+					bounds[1] = i;
+				} else if (column == 5) {
+					bounds[2] = start;
+					bounds[3] = i;
+					return;
+				}
+				column++;
+				start = i + 1;
+			}
+		}
+		throw new IllegalArgumentException("Export Format line has less than 6 columns: " + line);
+	}
+	
+	/** Finds the sentences in a UTF-8 encoded Export Format line. Tabs are ASCII characters,
+	 * so the line doesn't have to be decoded.
+	 * 
+	 * @param bytes Bytes containing the line
+	 * @param from Line start
+	 * @param to Line end
+	 * @param bounds Array the byte offsets of the start and end of the first and second language sentence are stored to.
+	 */
+	public static void findSentences(byte[] bytes, int from, int to, int[] bounds) {
+		int column = 0;
+		int start = from;
+		for (int i = from; i <= to; i++) {
+			if ((i == to) || (bytes[i] == '\t')) {
+				if (column == 1) {
+					bounds[0] = start;
+					bounds[1] = i;
+				} else if (column == 5) {
+					bounds[2] = start;
+					bounds[3] = i;
+					return;
+				}
+				column++;
+				start = i + 1;
+			}
+		}
+		throw new IllegalArgumentException("Export Format line has less than 6 columns: " + new String(bytes, from, to - from, Utf8.UTF8));
 	}
 	
 	/** Extracts requested data.
@@ -56,55 +154,110 @@ public class ExportFormatProcessor {
 	 * @param mode Mode, i.e. what's to extract
 	 * @return String with extracted data.
 	 */
-	private String extract(String line) {
-		String[] columns = line.split(" ");
+	public static String extract(String line, ExportMode mode) {
+		StringBuilder result = new StringBuilder(line.length());
+		extract(line, 0, line.length(), mode, result);
+		return result.toString();
+	}
+	
+	/** Extracts requested data from a part of a line. The words are scanned only once, the requested factor 
+	 * of each word is appended to the result directly.
+	 * 
+	 * @param line Line containing the sentence with additional information (lemmas, tags, etc)
+	 * @param from Sentence start
+	 * @param to Sentence end
+	 * @param mode Mode, i.e. what's to extract
+	 * @param result Buffer the extracted data are appended to.
+	 */
+	public static void extract(String line, int from, int to, ExportMode mode, StringBuilder result) {
+		int factor = 0;
+		if (mode == ExportMode.LEMMA) {
+			factor = 1;
+		} else if (mode == ExportMode.TAG) {
+			factor = 2;
+		}
+		boolean pseudolemma = (mode == ExportMode.PSEUDOLEMMA);
 		
-		StringBuilder result = new StringBuilder();
+		// trailing empty words are dropped, as String.split does
+		if ((to > from) && (line.charAt(to - 1) == ' ')) {
+			while ((to > from) && (line.charAt(to - 1) == ' ')) {
+				to--;
+			}
+			if (to == from) {
+				return;
+			}
+		}
 		
-		switch(mode) {
-
-		case PLAIN:
-			for(int i = 0; i<columns.length; i++) {
-				result.append(columns[i].split("\\|")[0]);
-				if (i < columns.length-1) {
-					result.append(" ");
+		int start = from;
+		for (int i = from; i <= to; i++) {
+			if ((i == to) || (line.charAt(i) == ' ')) {
+				if (start > from) {
+					result.append(' ');
 				}
+				appendFactor(line, start, i, factor, pseudolemma, result);
+				start = i + 1;
 			}
-			break;
-			
-		case LEMMA: 
-			for(int i = 0; i<columns.length; i++) {
-				result.append(columns[i].split("\\|")[1]);
-				if (i < columns.length-1) {
-					result.append(" ");
-				}
-			}			
-			break;
-			
-		case TAG:
-			for(int i = 0; i<columns.length; i++) {
-				result.append(columns[i].split("\\|")[2]);
-				if (i < columns.length-1) {
-					result.append(" ");
-				}
+		}
+	}
+	
+	/** Appends a factor of a word.
+	 * 
+	 * @param line Line containing the word
+	 * @param start Word start
+	 * @param end Word end
+	 * @param factor Index of the factor separated by |
+	 * @param pseudolemma True to append the pseudolemma instead (lowercased form, at most five characters)
+	 * @param result Buffer the factor is appended to.
+	 */
+	private static void appendFactor(String line, int start, int end, int factor, boolean pseudolemma, StringBuilder result) {
+		int i = start;
+		for (int f = 0; f < factor; f++) {
+			while ((i < end) && (line.charAt(i) != '|')) {
+				i++;
 			}
-			break;
-			
-		case PSEUDOLEMMA:
-			for(int i = 0; i<columns.length; i++) {
-				String word = columns[i].split("\\|")[0].toLowerCase();
+			if (i == end) {
+				throw new IllegalArgumentException("Word has no factor " + factor + ": " + line.substring(start, end));
+			}
+			i++;
+		}
+		int factorEnd = i;
+		while ((factorEnd < end) && (line.charAt(factorEnd) != '|')) {
+			factorEnd++;
+		}
+		
+		if (pseudolemma) {
+			appendPseudolemma(line, i, factorEnd, result);
+		} else {
+			result.append(line, i, factorEnd);
+		}
+	}
+	
+	/** Appends the pseudolemma of a word form, i.e. the lowercased form cut to at most five characters.
+	 * 
+	 * @param line Line containing the word form
+	 * @param from Word form start
+	 * @param to Word form end
+	 * @param result Buffer the pseudolemma is appended to.
+	 */
+	static void appendPseudolemma(String line, int from, int to, StringBuilder result) {
+		int prefixEnd = Math.min(to, from + 5);
+		for (int j = from; j < prefixEnd; j++) {
+			if (line.charAt(j) >= 128) {
+				String word = line.substring(from, to).toLowerCase();
 				if (word.length() > 5) {
 					word = word.substring(0, 5);
 				}
 				result.append(word);
-				if (i < columns.length-1) {
-					result.append(" ");
-				}
+				return;
 			}
-			break;
 		}
-
-		return result.toString();		
+		for (int j = from; j < prefixEnd; j++) {
+			char c = line.charAt(j);
+			if ((c >= 'A') && (c <= 'Z')) {
+				c += 'a' - 'A';
+			}
+			result.append(c);
+		}
 	}
 	
 	/** This method prints help. 
@@ -112,16 +265,17 @@ public class ExportFormatProcessor {
 	 */
 	public static void printHelp() {
 		System.out.println("Use:");
-		System.out.println("ExportFormatProcessor -mode");
+		System.out.println("ExportFormatProcessor -mode [export_format_file]");
 		System.out.println("Mode options: lemma, pseudolemma, tag, plain");
 	}
 	
 	/** Reads input stream and calls processLine method. Output is given on the standard output.
 	 *  
-	 * @param args Command line arguments. Just one option - mode, i.e. what to extract.
+	 * @param args Command line arguments. Mode, i.e. what to extract, and optionally an Export Format file 
+	 * to be memory-mapped and read instead of the standard input.
 	 */
 	public static void main(String args[]) {
-		if (args.length != 1) {
+		if ((args.length != 1) && (args.length != 2)) {
 			printHelp();
 			return;
 		}
@@ -142,12 +296,21 @@ public class ExportFormatProcessor {
 			return;
 		}
 		
-		ExportFormatProcessor processor = new ExportFormatProcessor(mode);
-		
 		String line; 
 		try {
-			while((line = processor.readLine()) != null) {
-				System.out.println(line);
+			ExportFormatProcessor processor;
+			if (args.length == 2) {
+				processor = new ExportFormatProcessor(mode, args[1]);
+			} else {
+				processor = new ExportFormatProcessor(mode);
+			}
+			
+			try {
+				while((line = processor.readLine()) != null) {
+					System.out.println(line);
+				}
+			} finally {
+				processor.close();
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("Error reading input!");
@@ -0,0 +1,385 @@
+package filter.tools;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Reader of GIZA++ A3.final files. Each record consists of three lines: a header, the target sentence
+ * and the source sentence with the alignment, e.g.
+ * # Sentence pair (1) source length 14 target length 14 alignment score : 1.2e-10
+ *
+ * The file is memory-mapped and split into chunks of whole records, which are parsed in parallel.
+ * Only the fields needed are read from the headers, the lines are not tokenized.
+ *
+ * @author Adam Liska
+ *
+ */
+public class GizaA3Reader {
+
+	public static final int RECORD_LINES = 3;
+	/** Header fields separated by spaces: sentence pair number, target length and alignment score. */
+	static final int NUMBER_FIELD = 3;
+	static final int LENGTH_FIELD = 9;
+	static final int SCORE_FIELD = 13;
+
+	/** Sentence alignment scores of the records of a file or a chunk and optionally the features 
+	 * of the alignments: ratio of unaligned words, maximum fertility and density of crossing alignment links.
+	 *
+	 */
+	public static class Alignments {
+		int count;
+		int[] numbers = new int[1024];
+		public double[] scores = new double[1024];
+		/** Unaligned words (target words aligned to NULL and source words aligned to nothing) of all words. */
+		public float[] unaligned;
+		/** Maximum number of target words aligned to a source word. */
+		public int[] fertility;
+		/** Crossing pairs of alignment links of all pairs of links. */
+		public float[] crossing;
+
+		/** Starts of the header fields, reused for all headers. */
+		int[] starts = new int[SCORE_FIELD + 2];
+		/** Fenwick tree counting alignment links by target positions, reused for all records. */
+		int[] links = new int[256];
+
+		Alignments(boolean features) {
+			if (features) {
+				unaligned = new float[1024];
+				fertility = new int[1024];
+				crossing = new float[1024];
+			}
+		}
+
+		/** Returns the number of records.
+		 *
+		 * @return Number of records.
+		 */
+		public int size() {
+			return count;
+		}
+
+		/** Checks whether the features of the alignments were read.
+		 *
+		 * @return True if the features are available.
+		 */
+		public boolean hasFeatures() {
+			return unaligned != null;
+		}
+
+		void add(int number, double score) {
+			if (count == numbers.length) {
+				numbers = Arrays.copyOf(numbers, 2 * count);
+				scores = Arrays.copyOf(scores, 2 * count);
+				if (hasFeatures()) {
+					unaligned = Arrays.copyOf(unaligned, 2 * count);
+					fertility = Arrays.copyOf(fertility, 2 * count);
+					crossing = Arrays.copyOf(crossing, 2 * count);
+				}
+			}
+			numbers[count] = number;
+			scores[count] = score;
+			count++;
+		}
+	}
+
+	/** Reads the sentence alignment scores normalised by the target sentence length: log(alignment score) / target length.
+	 * The scores are ordered by the sentence pair numbers of the records, i.e. in the order of the corpus.
+	 * If the records are not numbered from 1 to the number of records, they are kept in the order of the file.
+	 *
+	 * @param file A3.final file path
+	 * @param threads Number of threads parsing the file.
+	 * @return Scores of the sentence pairs
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	public static double[] readScores(String file, int threads) throws IOException {
+		return read(file, threads, false).scores;
+	}
+
+	/** Reads the sentence alignment scores and optionally the features of the alignments, 
+	 * ordered by the sentence pair numbers as in readScores.
+	 *
+	 * @param file A3.final file path
+	 * @param threads Number of threads parsing the file.
+	 * @param features True to parse the alignment lines as well.
+	 * @return Alignments of the sentence pairs
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	public static Alignments read(String file, int threads, final boolean features) throws IOException {
+		MappedCorpus corpus = new MappedCorpus(file);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Alignments>> parsed = new ArrayList<Future<Alignments>>();
+			for (final MappedCorpus.Chunk chunk:corpus.splitRecords(MappedCorpus.CHUNK_SIZE, RECORD_LINES, threads)) {
+				parsed.add(workers.submit(new Callable<Alignments>() {
+					public Alignments call() throws IOException {
+						return parse(chunk.map(), features);
+					}
+				}));
+			}
+
+			int count = 0;
+			for (Future<Alignments> chunk:parsed) {
+				count += chunk.get().count;
+			}
+			Alignments all = new Alignments(false);
+			all.count = count;
+			all.numbers = new int[count];
+			all.scores = new double[count];
+			if (features) {
+				all.unaligned = new float[count];
+				all.fertility = new int[count];
+				all.crossing = new float[count];
+			}
+			int r = 0;
+			for (Future<Alignments> future:parsed) {
+				Alignments chunk = future.get();
+				System.arraycopy(chunk.numbers, 0, all.numbers, r, chunk.count);
+				System.arraycopy(chunk.scores, 0, all.scores, r, chunk.count);
+				if (features) {
+					System.arraycopy(chunk.unaligned, 0, all.unaligned, r, chunk.count);
+					System.arraycopy(chunk.fertility, 0, all.fertility, r, chunk.count);
+					System.arraycopy(chunk.crossing, 0, all.crossing, r, chunk.count);
+				}
+				r += chunk.count;
+			}
+			orderByNumbers(all, file);
+			return all;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while reading GIZA output!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Error reading GIZA output!", e.getCause());
+		} finally {
+			workers.shutdownNow();
+			corpus.close();
+		}
+	}
+
+	/** Orders the records by the sentence pair numbers, if they are numbered from 1 to the number of records.
+	 *
+	 * @param alignments Records in the order of the file
+	 * @param file File name for the warning
+	 */
+	static void orderByNumbers(Alignments alignments, String file) {
+		int count = alignments.count;
+		int[] order = new int[count];
+		Arrays.fill(order, -1);
+		for (int r = 0; r < count; r++) {
+			int pair = alignments.numbers[r] - 1;
+			if ((pair < 0) || (pair >= count) || (order[pair] >= 0)) {
+				System.err.println("Sentence pairs of " + file + " are not numbered from 1 to " + count + ", keeping the order of the file.");
+				return;
+			}
+			order[pair] = r;
+		}
+
+		double[] scores = new double[count];
+		for (int pair = 0; pair < count; pair++) {
+			scores[pair] = alignments.scores[order[pair]];
+			alignments.numbers[pair] = pair + 1;
+		}
+		alignments.scores = scores;
+		if (alignments.hasFeatures()) {
+			float[] unaligned = new float[count];
+			int[] fertility = new int[count];
+			float[] crossing = new float[count];
+			for (int pair = 0; pair < count; pair++) {
+				unaligned[pair] = alignments.unaligned[order[pair]];
+				fertility[pair] = alignments.fertility[order[pair]];
+				crossing[pair] = alignments.crossing[order[pair]];
+			}
+			alignments.unaligned = unaligned;
+			alignments.fertility = fertility;
+			alignments.crossing = crossing;
+		}
+	}
+
+	/** Parses the records of a chunk.
+	 *
+	 * @param buffer Chunk starting with a record header
+	 * @param features True to parse the alignment lines as well.
+	 * @return Sentence pair numbers, scores and features
+	 */
+	static Alignments parse(MappedByteBuffer buffer, boolean features) {
+		Alignments records = new Alignments(features);
+		int limit = buffer.limit();
+		int position = 0;
+		while (position < limit) {
+			int end = lineEnd(buffer, position, limit);
+			int targetLength = parseHeader(buffer, position, end, records);
+			position = end + 1;
+			for (int l = 1; (l < RECORD_LINES) && (position < limit); l++) {
+				end = lineEnd(buffer, position, limit);
+				if (features && (l == RECORD_LINES - 1)) {
+					parseAlignment(buffer, position, end, targetLength, records);
+				}
+				position = end + 1;
+			}
+		}
+		return records;
+	}
+
+	/** Parses the alignment line of a record: source words, each followed by the positions of the target words 
+	 * aligned to it, the first word is NULL, e.g. NULL ({ 3 }) v1 ({ }) v2 ({ 1 2 }). 
+	 * Computes the ratio of unaligned words, the maximum fertility and the density of crossing links of the last record.
+	 *
+	 * @param buffer Buffer with the line
+	 * @param from Start of the line
+	 * @param to End of the line
+	 * @param targetLength Target sentence length from the header
+	 * @param records Records with the last record being the one of the line
+	 */
+	static void parseAlignment(MappedByteBuffer buffer, int from, int to, int targetLength, Alignments records) {
+		int[] tree = records.links;
+		int size = Math.max(targetLength, 1) + 1;
+		if (tree.length < size) {
+			tree = new int[Math.max(size, 2 * tree.length)];
+			records.links = tree;
+		}
+		Arrays.fill(tree, 0, size, 0);
+
+		int source = -1;
+		boolean inLinks = false;
+		int fertility = 0;
+		int maxFertility = 0;
+		int nullLinks = 0;
+		int unalignedSources = 0;
+		long links = 0;
+		long crossings = 0;
+		int i = from;
+		while (i < to) {
+			while ((i < to) && ((buffer.get(i) == ' ') || (buffer.get(i) == '\r'))) {
+				i++;
+			}
+			if (i >= to) {
+				break;
+			}
+			int start = i;
+			while ((i < to) && (buffer.get(i) != ' ') && (buffer.get(i) != '\r')) {
+				i++;
+			}
+
+			if (!inLinks) {
+				if ((i - start == 2) && (buffer.get(start) == '(') && (buffer.get(start + 1) == '{') && (source >= 0)) {
+					inLinks = true;
+					fertility = 0;
+				} else {
+					source++;
+				}
+			} else if ((i - start == 2) && (buffer.get(start) == '}') && (buffer.get(start + 1) == ')')) {
+				inLinks = false;
+				if (source == 0) {
+					nullLinks = fertility;
+				} else {
+					maxFertility = Math.max(maxFertility, fertility);
+					if (fertility == 0) {
+						unalignedSources++;
+					}
+				}
+			} else {
+				int target = parseNumber(buffer, start, i);
+				fertility++;
+				if ((source > 0) && (target > 0) && (target < size)) {
+					// links of earlier source words to later target words cross this one
+					crossings += links - count(tree, target);
+					links++;
+					for (int t = target; t < size; t += t & -t) {
+						tree[t]++;
+					}
+				}
+			}
+		}
+
+		int words = targetLength + Math.max(source, 0);
+		int r = records.count - 1;
+		records.unaligned[r] = (words > 0) ? (float) (nullLinks + unalignedSources) / words : 0;
+		records.fertility[r] = maxFertility;
+		records.crossing[r] = (links > 1) ? (float) ((double) crossings / (links * (links - 1) / 2)) : 0;
+	}
+
+	/** Returns the number of links to target positions up to the given one.
+	 *
+	 */
+	private static int count(int[] tree, int target) {
+		int sum = 0;
+		for (int t = target; t > 0; t -= t & -t) {
+			sum += tree[t];
+		}
+		return sum;
+	}
+
+	/** Parses the sentence pair number, the target length and the alignment score of a header.
+	 *
+	 * @param buffer Buffer with the header
+	 * @param from Start of the header
+	 * @param to End of the header
+	 * @param records Records the header is added to
+	 * @return Target sentence length
+	 */
+	static int parseHeader(MappedByteBuffer buffer, int from, int to, Alignments records) {
+		if ((to > from) && (buffer.get(to - 1) == '\r')) {
+			to--;
+		}
+		int[] starts = records.starts;
+		int field = 0;
+		starts[0] = from;
+		for (int i = from; (i < to) && (field <= SCORE_FIELD); i++) {
+			if (buffer.get(i) == ' ') {
+				starts[++field] = i + 1;
+			}
+		}
+		if (field < SCORE_FIELD) {
+			throw new IllegalArgumentException("Incorrect GIZA++ record header: " + decode(buffer, from, to));
+		}
+		int scoreEnd = (field > SCORE_FIELD) ? starts[SCORE_FIELD + 1] - 1 : to;
+
+		int number = parseNumber(buffer, starts[NUMBER_FIELD] + 1, starts[NUMBER_FIELD + 1] - 2);
+		double length = parseNumber(buffer, starts[LENGTH_FIELD], starts[LENGTH_FIELD + 1] - 1);
+		if (length < 0) {
+			length = Double.parseDouble(decode(buffer, starts[LENGTH_FIELD], starts[LENGTH_FIELD + 1] - 1));
+		}
+		double score = Double.parseDouble(decode(buffer, starts[SCORE_FIELD], scoreEnd));
+		records.add(number, Math.log(score) / length);
+		return (int) length;
+	}
+
+	/** Parses a non-negative integer.
+	 *
+	 * @return The number, -1 if the bytes are not digits.
+	 */
+	private static int parseNumber(MappedByteBuffer buffer, int from, int to) {
+		if (from >= to) {
+			return -1;
+		}
+		int number = 0;
+		for (int i = from; i < to; i++) {
+			int digit = buffer.get(i) - '0';
+			if ((digit < 0) || (digit > 9) || (number > (Integer.MAX_VALUE - digit) / 10)) {
+				return -1;
+			}
+			number = 10 * number + digit;
+		}
+		return number;
+	}
+
+	private static String decode(MappedByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[Math.max(to - from, 0)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(from + i);
+		}
+		return new String(bytes, Utf8.UTF8);
+	}
+
+	private static int lineEnd(MappedByteBuffer buffer, int from, int limit) {
+		int i = from;
+		while ((i < limit) && (buffer.get(i) != '\n')) {
+			i++;
+		}
+		return i;
+	}
+}
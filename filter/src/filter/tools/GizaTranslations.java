@@ -2,6 +2,7 @@ package filter.tools;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** Extraction of a GIZA++ translation dictionary.
  * 
@@ -10,6 +11,9 @@ import java.util.*;
  */
 public class GizaTranslations {
 	
+	/** Maximum number of t-table entries sorted in memory at once by getTopTranslations. */
+	static final int RUN_ENTRIES = 1 << 20;
+	
 	/** Processes GIZA output in one direction.
 	 * 
 	 * @param folder Path to the folder which GIZA++ output.
@@ -113,6 +117,759 @@ public class GizaTranslations {
 		return result;
 	}
 	
+	/** Words of a language seen in the vocabularies of both directions, numbered from 0.
+	 * 
+	 */
+	static class Vocabulary {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> words = new ArrayList<String>();
+		
+		/** Maps GIZA++ word ids of a vocabulary file to the word ids of the language.
+		 * 
+		 * @param gizaWords Words of the vocabulary file, indexed by GIZA++ ids.
+		 * @return Word ids indexed by GIZA++ ids, -1 for unused GIZA++ ids.
+		 */
+		int[] map(String[] gizaWords) {
+			int[] result = new int[gizaWords.length];
+			for (int i = 0; i < gizaWords.length; i++) {
+				if (gizaWords[i] == null) {
+					result[i] = -1;
+					continue;
+				}
+				Integer id = ids.get(gizaWords[i]);
+				if (id == null) {
+					id = words.size();
+					ids.put(gizaWords[i], id);
+					words.add(gizaWords[i]);
+				}
+				result[i] = id;
+			}
+			return result;
+		}
+	}
+	
+	/** Reads a GIZA++ vocabulary file: id word count.
+	 * 
+	 * @param file Vocabulary file path
+	 * @return Words indexed by their ids.
+	 * @throws IOException Exception thrown if there is an error reading file input.
+	 */
+	static String[] readVocabulary(String file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		String[] words = new String[1 << 16];
+		String line;
+		while ((line = in.readLine()) != null) {
+			int space = line.indexOf(' ');
+			int end = line.indexOf(' ', space + 1);
+			int id = Integer.parseInt(line.substring(0, space));
+			if (id >= words.length) {
+				words = Arrays.copyOf(words, Math.max(2 * words.length, id + 1));
+			}
+			words[id] = line.substring(space + 1, (end < 0) ? line.length() : end);
+		}
+		in.close();
+		return words;
+	}
+	
+	/** Receiver of the entries of a t-table.
+	 * 
+	 */
+	interface TableConsumer {
+		
+		/** Receives an entry.
+		 * 
+		 * @param key first_language_id << 32 | second_language_id
+		 * @param probability Translation probability
+		 * @throws IOException Exception thrown if the entry cannot be stored.
+		 */
+		void add(long key, double probability) throws IOException;
+	}
+	
+	/** Reads a GIZA++ t-table file (source_id target_id probability) into a map keyed by the word ids 
+	 * of both languages: first_language_id << 32 | second_language_id. Entries of the NULL word are left out.
+	 * 
+	 * @param file t-table file path
+	 * @param sourceIds Word ids of the source language indexed by GIZA++ ids
+	 * @param targetIds Word ids of the target language indexed by GIZA++ ids
+	 * @param reverse True if the source language is the second language.
+	 * @return Translation probabilities
+	 * @throws IOException Exception thrown if there is an error reading file input.
+	 */
+	static LongDoubleMap readTable(String file, int[] sourceIds, int[] targetIds, boolean reverse) throws IOException {
+		final LongDoubleMap table = new LongDoubleMap(1 << 16);
+		readTable(file, sourceIds, targetIds, reverse, new TableConsumer() {
+			public void add(long key, double probability) {
+				table.put(key, probability);
+			}
+		});
+		return table;
+	}
+	
+	/** Streams a GIZA++ t-table file (source_id target_id probability) keyed by the word ids of both languages.
+	 * Entries of the NULL word are left out.
+	 * 
+	 * @param file t-table file path
+	 * @param sourceIds Word ids of the source language indexed by GIZA++ ids
+	 * @param targetIds Word ids of the target language indexed by GIZA++ ids
+	 * @param reverse True if the source language is the second language.
+	 * @param consumer Receiver of the entries
+	 * @throws IOException Exception thrown if there is an error reading file input.
+	 */
+	static void readTable(String file, int[] sourceIds, int[] targetIds, boolean reverse, TableConsumer consumer) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16);
+		String line;
+		while ((line = in.readLine()) != null) {
+			int first = line.indexOf(' ');
+			int second = line.indexOf(' ', first + 1);
+			int end = line.indexOf(' ', second + 1);
+			int source = parseId(line, 0, first);
+			int target = parseId(line, first + 1, second);
+			if ((source == 0) || (target == 0) || (source >= sourceIds.length) || (target >= targetIds.length)
+					|| (sourceIds[source] < 0) || (targetIds[target] < 0)) {
+				continue;
+			}
+			
+			double probability = Double.parseDouble(line.substring(second + 1, (end < 0) ? line.length() : end));
+			long s = sourceIds[source];
+			long t = targetIds[target];
+			consumer.add(reverse ? ((t << 32) | s) : ((s << 32) | t), probability);
+		}
+		in.close();
+	}
+	
+	private static int parseId(String line, int from, int to) {
+		int id = 0;
+		for (int i = from; i < to; i++) {
+			char c = line.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				throw new NumberFormatException("Incorrect word id: " + line);
+			}
+			id = 10 * id + (c - '0');
+		}
+		return id;
+	}
+	
+	/** Extracts the best translation of each word in the first language from GIZA output in both directions.
+	 * Words are kept as int ids and the translation tables as primitive maps; both directions are read in parallel. 
+	 * The translation with the highest sum of the probabilities in both directions is chosen 
+	 * in a single pass over the first->second table. Ties are resolved in favour of the translation 
+	 * with the lower word id, i.e. the one listed first in the first->second target vocabulary, 
+	 * so the result depends neither on the order of the table nor on the hash map slots.
+	 * 
+	 * @param folder1 Path to the folder with GIZA++ output first->second.
+	 * @param prefix1 Prefix of GIZA++ files first->second.
+	 * @param folder2 Path to the folder with GIZA++ output second->first.
+	 * @param prefix2 Prefix of GIZA++ files second->first.
+	 * @return HashMap of words in the first language and a best translation for each of them.
+	 * @throws IOException Exception thrown if there is an error reading file input.
+	 */
+	public static HashMap<String, String> getBestTranslations(final String folder1, final String prefix1, 
+			final String folder2, final String prefix2) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			Vocabulary first = new Vocabulary();
+			Vocabulary second = new Vocabulary();
+			int[][] ids = readVocabularies(workers, folder1, prefix1, folder2, prefix2, first, second);
+			final int[] source1 = ids[0];
+			final int[] target1 = ids[1];
+			final int[] source2 = ids[2];
+			final int[] target2 = ids[3];
+			
+			Future<LongDoubleMap> table1 = workers.submit(new Callable<LongDoubleMap>() {
+				public LongDoubleMap call() throws IOException {
+					return readTable(folder1 + "/" + prefix1 + ".t3.final", source1, target1, false);
+				}
+			});
+			Future<LongDoubleMap> table2 = workers.submit(new Callable<LongDoubleMap>() {
+				public LongDoubleMap call() throws IOException {
+					return readTable(folder2 + "/" + prefix2 + ".t3.final", source2, target2, true);
+				}
+			});
+			return getBestTranslations(table1.get(), table2.get(), first, second);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while reading GIZA output!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("Error reading GIZA output!", e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+	
+	/** Reads the vocabularies of both directions in parallel.
+	 * 
+	 * @param workers Threads reading the files
+	 * @param folder1 Path to the folder with GIZA++ output first->second.
+	 * @param prefix1 Prefix of GIZA++ files first->second.
+	 * @param folder2 Path to the folder with GIZA++ output second->first.
+	 * @param prefix2 Prefix of GIZA++ files second->first.
+	 * @param first Words of the first language, filled in.
+	 * @param second Words of the second language, filled in.
+	 * @return Word ids indexed by GIZA++ ids: source and target first->second, source and target second->first.
+	 * @throws InterruptedException Exception thrown if the reading is interrupted.
+	 * @throws ExecutionException Exception thrown if there is an error reading file input.
+	 */
+	static int[][] readVocabularies(ExecutorService workers, String folder1, String prefix1, String folder2, String prefix2, 
+			Vocabulary first, Vocabulary second) throws InterruptedException, ExecutionException {
+		List<Future<String[]>> vocabularies = workers.invokeAll(Arrays.asList(
+				readVocabularyTask(folder1 + "/" + prefix1 + ".trn.src.vcb"),
+				readVocabularyTask(folder1 + "/" + prefix1 + ".trn.trg.vcb"),
+				readVocabularyTask(folder2 + "/" + prefix2 + ".trn.src.vcb"),
+				readVocabularyTask(folder2 + "/" + prefix2 + ".trn.trg.vcb")));
+		return new int[][] {
+				first.map(vocabularies.get(0).get()),
+				second.map(vocabularies.get(1).get()),
+				second.map(vocabularies.get(2).get()),
+				first.map(vocabularies.get(3).get())};
+	}
+	
+	/** Extracts the k best translations of each word in the first language from GIZA output in both directions. 
+	 * Neither table is held in memory: both are read in parallel into sorted runs of at most RUN_ENTRIES entries 
+	 * (written to temporary files), the runs are merged and the two sorted tables are joined, the entries found 
+	 * in both directions are kept in fixed size heaps, one for each word. Memory is therefore the vocabularies, 
+	 * vocabulary x k for the heaps and a run of each table, plus a read buffer for each run being merged 
+	 * (at most MERGE_RUNS for each level of merging). The tables themselves take disk space in the runs.
+	 * 
+	 * @param folder1 Path to the folder with GIZA++ output first->second.
+	 * @param prefix1 Prefix of GIZA++ files first->second.
+	 * @param folder2 Path to the folder with GIZA++ output second->first.
+	 * @param prefix2 Prefix of GIZA++ files second->first.
+	 * @param k Maximum number of translations of a word.
+	 * @param floor Minimum sum of the probabilities in both directions.
+	 * @return Best translations
+	 * @throws IOException Exception thrown if there is an error reading file input.
+	 */
+	public static TopTranslations getTopTranslations(String folder1, String prefix1, String folder2, String prefix2, 
+			int k, double floor) throws IOException {
+		return getTopTranslations(folder1, prefix1, folder2, prefix2, k, floor, RUN_ENTRIES);
+	}
+	
+	/** Extracts the k best translations of each word, see getTopTranslations.
+	 * 
+	 * @param runEntries Maximum number of entries of a table sorted in memory.
+	 */
+	static TopTranslations getTopTranslations(final String folder1, final String prefix1, final String folder2, final String prefix2, 
+			int k, double floor, int runEntries) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		final SortedTable table1 = new SortedTable(runEntries);
+		final SortedTable table2 = new SortedTable(runEntries);
+		try {
+			Vocabulary first = new Vocabulary();
+			Vocabulary second = new Vocabulary();
+			int[][] ids = readVocabularies(workers, folder1, prefix1, folder2, prefix2, first, second);
+			for (Future<Object> read:workers.invokeAll(Arrays.asList(
+					readTableTask(folder1 + "/" + prefix1 + ".t3.final", ids[0], ids[1], false, table1),
+					readTableTask(folder2 + "/" + prefix2 + ".t3.final", ids[2], ids[3], true, table2)))) {
+				read.get();
+			}
+			
+			TopTranslations top = new TopTranslations(first, second, k, floor);
+			boolean more1 = table1.next();
+			boolean more2 = table2.next();
+			while (more1 && more2) {
+				if (table1.key < table2.key) {
+					more1 = table1.next();
+				} else if (table1.key > table2.key) {
+					more2 = table2.next();
+				} else {
+					top.add(table1.key, table1.probability + table2.probability);
+					more1 = table1.next();
+					more2 = table2.next();
+				}
+			}
+			return top;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while reading GIZA output!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("Error reading GIZA output!", e.getCause());
+		} finally {
+			workers.shutdownNow();
+			table1.close();
+			table2.close();
+		}
+	}
+	
+	private static Callable<Object> readTableTask(final String file, final int[] sourceIds, final int[] targetIds, 
+			final boolean reverse, final SortedTable table) {
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				readTable(file, sourceIds, targetIds, reverse, table);
+				table.finish();
+				return null;
+			}
+		};
+	}
+	
+	/** Entries of a t-table sorted by their keys. The entries are collected in a map of at most runEntries entries, 
+	 * which is written to a sorted run in a temporary file when it is full. Every MERGE_RUNS runs of the same size 
+	 * are merged into a single larger run, so that at most MERGE_RUNS runs of each size are open at the end. 
+	 * The remaining runs are then merged and the entries read in the order of their keys by next. 
+	 * An entry read several times keeps the last probability.
+	 * 
+	 */
+	static class SortedTable implements TableConsumer {
+		static final int MERGE_RUNS = 64;
+		
+		int runEntries;
+		LongDoubleMap entries = new LongDoubleMap(1 << 16);
+		/** Run files of each merge level, the older runs first. */
+		List<List<File>> levels = new ArrayList<List<File>>();
+		Merge merge;
+		/** Current entry */
+		long key;
+		double probability;
+		
+		SortedTable(int runEntries) {
+			this.runEntries = runEntries;
+		}
+		
+		public void add(long key, double probability) throws IOException {
+			entries.put(key, probability);
+			if (entries.size() >= runEntries) {
+				spill();
+			}
+		}
+		
+		/** Writes the collected entries to a sorted run.
+		 * 
+		 * @throws IOException Exception thrown if there is an error writing the run.
+		 */
+		void spill() throws IOException {
+			long[] keys = getSortedKeys(entries);
+			File file = createRun();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {
+				out.writeInt(keys.length);
+				for (long key:keys) {
+					out.writeLong(key);
+					out.writeDouble(entries.get(key, 0));
+				}
+			} finally {
+				out.close();
+			}
+			entries = new LongDoubleMap(1 << 16);
+			addRun(0, file);
+		}
+		
+		/** Adds a run to a merge level, merges the runs of the level if there are MERGE_RUNS of them.
+		 * 
+		 */
+		private void addRun(int level, File file) throws IOException {
+			if (level == levels.size()) {
+				levels.add(new ArrayList<File>());
+			}
+			List<File> runs = levels.get(level);
+			runs.add(file);
+			if (runs.size() < MERGE_RUNS) {
+				return;
+			}
+			
+			File merged = createRun();
+			Merge merge = new Merge(runs, null);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged), 1 << 16));
+			int count = 0;
+			try {
+				// the number of entries is written when it is known
+				out.writeInt(0);
+				while (merge.next()) {
+					out.writeLong(merge.key);
+					out.writeDouble(merge.probability);
+					count++;
+				}
+			} finally {
+				out.close();
+				merge.close();
+			}
+			RandomAccessFile header = new RandomAccessFile(merged, "rw");
+			try {
+				header.writeInt(count);
+			} finally {
+				header.close();
+			}
+			for (File run:runs) {
+				run.delete();
+			}
+			runs.clear();
+			addRun(level + 1, merged);
+		}
+		
+		private static File createRun() throws IOException {
+			File file = File.createTempFile("ttable", ".run");
+			file.deleteOnExit();
+			return file;
+		}
+		
+		/** Starts the merge of the runs, the entries not written to a run are the last run, kept in memory.
+		 * 
+		 * @throws IOException Exception thrown if there is an error reading a run.
+		 */
+		void finish() throws IOException {
+			// the runs of higher levels are older
+			List<File> runs = new ArrayList<File>();
+			for (int level = levels.size() - 1; level >= 0; level--) {
+				runs.addAll(levels.get(level));
+			}
+			long[] keys = getSortedKeys(entries);
+			double[] values = new double[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				values[i] = entries.get(keys[i], 0);
+			}
+			entries = null;
+			merge = new Merge(runs, new Run(runs.size(), keys, values));
+		}
+		
+		/** Moves to the next entry.
+		 * 
+		 * @return False after the last entry.
+		 * @throws IOException Exception thrown if there is an error reading a run.
+		 */
+		boolean next() throws IOException {
+			if (!merge.next()) {
+				return false;
+			}
+			key = merge.key;
+			probability = merge.probability;
+			return true;
+		}
+		
+		/** Closes and deletes the runs.
+		 * 
+		 */
+		void close() {
+			if (merge != null) {
+				merge.close();
+			}
+			for (List<File> runs:levels) {
+				for (File run:runs) {
+					run.delete();
+				}
+			}
+		}
+	}
+	
+	/** Merge of sorted runs of t-table entries. Of entries with the same key, the one of the last run is read.
+	 * 
+	 */
+	static class Merge {
+		PriorityQueue<Run> queue;
+		/** Current entry */
+		long key;
+		double probability;
+		
+		/** Opens the runs.
+		 * 
+		 * @param files Run files, the older runs first.
+		 * @param last Run kept in memory, newer than the files; null for none.
+		 * @throws IOException Exception thrown if there is an error reading a run.
+		 */
+		Merge(List<File> files, Run last) throws IOException {
+			queue = new PriorityQueue<Run>(files.size() + 1, new Comparator<Run>() {
+				public int compare(Run first, Run second) {
+					int comparison = Long.compare(first.key, second.key);
+					return (comparison != 0) ? comparison : first.number - second.number;
+				}
+			});
+			try {
+				for (int r = 0; r < files.size(); r++) {
+					Run run = new Run(r, files.get(r));
+					if (run.next()) {
+						queue.add(run);
+					}
+				}
+				if ((last != null) && last.next()) {
+					queue.add(last);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+		
+		/** Moves to the next entry.
+		 * 
+		 * @return False after the last entry.
+		 * @throws IOException Exception thrown if there is an error reading a run.
+		 */
+		boolean next() throws IOException {
+			if (queue.isEmpty()) {
+				return false;
+			}
+			Run run = queue.poll();
+			key = run.key;
+			do {
+				probability = run.probability;
+				if (run.next()) {
+					queue.add(run);
+				}
+				run = (!queue.isEmpty() && (queue.peek().key == key)) ? queue.poll() : null;
+			} while (run != null);
+			return true;
+		}
+		
+		void close() {
+			for (Run run:queue) {
+				run.close();
+			}
+			queue.clear();
+		}
+	}
+	
+	/** Sorted run of t-table entries, read from a file or from arrays.
+	 * 
+	 */
+	static class Run {
+		int number;
+		DataInputStream in;
+		int remaining;
+		long[] keys;
+		double[] values;
+		int position;
+		long key;
+		double probability;
+		
+		Run(int number, File file) throws IOException {
+			this.number = number;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			remaining = in.readInt();
+		}
+		
+		Run(int number, long[] keys, double[] values) {
+			this.number = number;
+			this.keys = keys;
+			this.values = values;
+			remaining = keys.length;
+		}
+		
+		/** Moves to the next entry.
+		 * 
+		 * @return False at the end of the run.
+		 */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				close();
+				return false;
+			}
+			remaining--;
+			if (in != null) {
+				key = in.readLong();
+				probability = in.readDouble();
+			} else {
+				key = keys[position];
+				probability = values[position];
+				position++;
+			}
+			return true;
+		}
+		
+		void close() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// only read
+				}
+				in = null;
+			}
+		}
+	}
+	
+	private static long[] getSortedKeys(LongDoubleMap map) {
+		long[] keys = new long[map.size()];
+		int count = 0;
+		for (int slot = 0; slot < map.capacity(); slot++) {
+			if (map.isUsed(slot)) {
+				keys[count++] = map.getKey(slot);
+			}
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+	
+	/** The k best translations of each word in the first language, kept in min-heaps of primitive arrays 
+	 * ordered by the sum of the probabilities in both directions. Of translations with the same sum, 
+	 * the ones with lower word ids are kept and written first.
+	 * 
+	 */
+	public static class TopTranslations {
+		Vocabulary first;
+		Vocabulary second;
+		int k;
+		double floor;
+		/** Heap of each word starts at word * k. */
+		double[] probabilities;
+		int[] translations;
+		int[] sizes;
+		
+		TopTranslations(Vocabulary first, Vocabulary second, int k, double floor) {
+			this.first = first;
+			this.second = second;
+			this.k = k;
+			this.floor = floor;
+			int words = first.words.size();
+			if ((long) words * k > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many translations: " + words + " words, k = " + k + "!");
+			}
+			probabilities = new double[words * k];
+			translations = new int[words * k];
+			sizes = new int[words];
+		}
+		
+		/** Offers a translation found in both directions; it is kept if it is among the best ones. 
+		 * The translations of a word have to be offered in the order of their word ids.
+		 * 
+		 * @param key first_language_id << 32 | second_language_id
+		 * @param probability Sum of the probabilities in both directions
+		 */
+		void add(long key, double probability) {
+			if (!(probability > 0) || (probability < floor)) {
+				return;
+			}
+			
+			int word = (int) (key >>> 32);
+			int base = word * k;
+			int size = sizes[word];
+			if (size < k) {
+				// sift up
+				int i = size;
+				while (i > 0) {
+					int parent = (i - 1) / 2;
+					if (probabilities[base + parent] <= probability) {
+						break;
+					}
+					probabilities[base + i] = probabilities[base + parent];
+					translations[base + i] = translations[base + parent];
+					i = parent;
+				}
+				probabilities[base + i] = probability;
+				translations[base + i] = (int) key;
+				sizes[word] = size + 1;
+			} else if (probability > probabilities[base]) {
+				// replace the smallest one and sift down
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= k) {
+						break;
+					}
+					if ((child + 1 < k) && (probabilities[base + child + 1] < probabilities[base + child])) {
+						child++;
+					}
+					if (probabilities[base + child] >= probability) {
+						break;
+					}
+					probabilities[base + i] = probabilities[base + child];
+					translations[base + i] = translations[base + child];
+					i = child;
+				}
+				probabilities[base + i] = probability;
+				translations[base + i] = (int) key;
+			}
+		}
+		
+		/** Writes the translations as a dictionary read by DictionaryFilter -d: word \t translation, 
+		 * lowercased, the best translation of each word first.
+		 * 
+		 * @param file Output file path
+		 * @return Number of written translations
+		 * @throws IOException Exception thrown if there is an error writing the file.
+		 */
+		public int write(String file) throws IOException {
+			BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+			out.write("# GIZA++ translations, k = " + k + ", floor = " + floor);
+			out.newLine();
+			
+			int written = 0;
+			double[] p = new double[k];
+			int[] t = new int[k];
+			for (int word = 0; word < sizes.length; word++) {
+				int size = sizes[word];
+				// insertion sort, best first
+				for (int i = 0; i < size; i++) {
+					double probability = probabilities[word * k + i];
+					int translation = translations[word * k + i];
+					int j = i;
+					while ((j > 0) && ((p[j - 1] < probability) || ((p[j - 1] == probability) && (t[j - 1] > translation)))) {
+						p[j] = p[j - 1];
+						t[j] = t[j - 1];
+						j--;
+					}
+					p[j] = probability;
+					t[j] = translation;
+				}
+				String source = first.words.get(word).toLowerCase();
+				for (int i = 0; i < size; i++) {
+					out.write(source);
+					out.write("\t");
+					out.write(second.words.get(t[i]).toLowerCase());
+					out.newLine();
+					written++;
+				}
+			}
+			out.close();
+			return written;
+		}
+	}
+	
+	private static Callable<String[]> readVocabularyTask(final String file) {
+		return new Callable<String[]>() {
+			public String[] call() throws IOException {
+				return readVocabulary(file);
+			}
+		};
+	}
+	
+	/** Chooses the best translation of each word in the first language, on ties the one with the lower word id.
+	 * 
+	 * @param table1 Probabilities first->second
+	 * @param table2 Probabilities second->first, with the same keys
+	 * @param first Words of the first language
+	 * @param second Words of the second language
+	 * @return HashMap of words in the first language and a best translation for each of them.
+	 */
+	static HashMap<String, String> getBestTranslations(LongDoubleMap table1, LongDoubleMap table2, Vocabulary first, Vocabulary second) {
+		int words = first.words.size();
+		double[] bestProbability = new double[words];
+		// -1 if there is no translation in both directions, -2 if there is one but none has a positive probability
+		int[] best = new int[words];
+		Arrays.fill(best, -1);
+		
+		for (int slot = 0; slot < table1.capacity(); slot++) {
+			if (!table1.isUsed(slot)) {
+				continue;
+			}
+			long key = table1.getKey(slot);
+			double reverse = table2.get(key, Double.NaN);
+			if (Double.isNaN(reverse) && !table2.containsKey(key)) {
+				continue;
+			}
+			int word = (int) (key >>> 32);
+			double probability = table1.getValue(slot) + reverse;
+			if (best[word] == -1) {
+				best[word] = -2;
+			}
+			// ties go to the lower word id, -2 (no positive probability yet) is never kept on a tie
+			if ((probability > bestProbability[word])
+					|| ((probability == bestProbability[word]) && (best[word] >= 0) && ((int) key < best[word]))) {
+				best[word] = (int) key;
+				bestProbability[word] = probability;
+			}
+		}
+		
+		HashMap<String, String> result = new HashMap<String, String>();
+		for (int word = 0; word < words; word++) {
+			if (best[word] != -1) {
+				String translation = (best[word] >= 0) ? second.words.get(best[word]) : "";
+				result.put(first.words.get(word).toLowerCase(), translation.toLowerCase());
+			}
+		}
+		return result;
+	}
+	
 	/** Serializes dictionary in a file.
 	 * 
 	 * @param model HashMap<String, String> dictionary
@@ -133,34 +890,56 @@ public class GizaTranslations {
 	public static void printHelp() {
 		System.out.println("Use:");
 		System.out.println("GizaTranslations firstLang_secondLang_folder prefix1 secondLang_firstLang_folder prefix2 model_output_file");
+		System.out.println("GizaTranslations -k number_of_translations [-p probability_floor] firstLang_secondLang_folder prefix1 secondLang_firstLang_folder prefix2 dictionary_output_file");
 	}
 
 	/** Program takes five arguments: firstLang_secondLang_folder prefix1 secondLang_firstLang_folder prefix2 model_output_file, in this order.
+	 * The model is a serialized HashMap with the best translation of each word, read by DictionaryFilter -g. 
+	 * With -k number_of_translations (and optionally -p probability_floor, the minimum sum of the probabilities 
+	 * in both directions), the k best translations are written as a text dictionary read by DictionaryFilter -d instead.
 	 * 
 	 * @param args Command line arguments.
 	 */
 	public static void main(String[] args) {
-		if (args.length == 5) {
-			HashMap<String, HashMap<String, Double>> one;
-			HashMap<String, HashMap<String, Double>> two;
-			
-			try {
-				one = GizaTranslations.getTranslations(args[0], args[1]);
-				two = GizaTranslations.getTranslations(args[2], args[3]);
-			} catch (IOException e) {
-				throw new RuntimeException("Error reading file input!");
+		int k = 0;
+		double floor = 0;
+		ArrayList<String> rest = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-k") && (i + 1 < args.length)) {
+				k = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-p") && (i + 1 < args.length)) {
+				floor = Double.parseDouble(args[++i]);
+			} else {
+				rest.add(args[i]);
 			}
-			
-			HashMap<String, String> model = GizaTranslations.getBestTranslations(one, two);
-			
+		}
+		if ((rest.size() != 5) || (k < 0) || ((k == 0) && (floor != 0))) {
+			printHelp();
+			return;
+		}
+		args = rest.toArray(new String[5]);
+		
+		if (k > 0) {
 			try {
-				GizaTranslations.saveModel(model, args[4]);
+				TopTranslations top = GizaTranslations.getTopTranslations(args[0], args[1], args[2], args[3], k, floor);
+				System.out.println("Dictionary successfully saved. Size: " + top.write(args[4]));
 			} catch (IOException e) {
-				throw new RuntimeException("Error saving model!");
-			}			
-		} else {
-			printHelp();
+				throw new RuntimeException("Error processing GIZA output!");
+			}
+			return;
 		}
 		
+		HashMap<String, String> model;
+		try {
+			model = GizaTranslations.getBestTranslations(args[0], args[1], args[2], args[3]);
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading file input!");
+		}
+		
+		try {
+			GizaTranslations.saveModel(model, args[4]);
+		} catch (IOException e) {
+			throw new RuntimeException("Error saving model!");
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package filter.tools;
+
+/** Back-off n-gram language model, as used by the n-gram filter. Words are referred to by their indices
+ * in the vocabulary of the model.
+ *
+ * @author Adam Liska
+ *
+ */
+public interface LanguageModel {
+
+	/** Index of words not in the vocabulary. */
+	int UNKNOWN = -1;
+
+	/** Sentence start. */
+	String SENTENCE_START = "<s>";
+	/** Sentence end. */
+	String SENTENCE_END = "</s>";
+
+	/** Returns the order of the model.
+	 *
+	 * @return Length of the longest n-grams.
+	 */
+	int getOrder();
+
+	/** Returns the size of the vocabulary.
+	 *
+	 * @return Number of words, the upper bound of the word indices.
+	 */
+	int size();
+
+	/** Returns a word of the vocabulary.
+	 *
+	 * @param index Word index
+	 * @return Word
+	 */
+	String getWord(int index);
+
+	/** Finds a word in the vocabulary.
+	 *
+	 * @param word Word
+	 * @return Word index, UNKNOWN if the word isn't in the vocabulary.
+	 */
+	int getIndex(String word);
+
+	/** Returns the probability of a word following a history, backing off to shorter histories as needed.
+	 * The history may contain UNKNOWN words, no n-gram matches them.
+	 *
+	 * @param word Word index, not UNKNOWN.
+	 * @param history Word indices of the history, the last word is the closest one.
+	 * @param length Length of the history, only the last getOrder() - 1 words are used.
+	 * @return Log10 probability, Double.NaN if the word has no probability.
+	 */
+	double getProbability(int word, int[] history, int length);
+}
@@ -0,0 +1,269 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.Arrays;
+
+/** Compiles an ARPA language model into a binary language model read by MappedLanguageModel.
+ * Probabilities and back-off weights are quantized to 8 or 16 bits, separately for every order: the values are split into bins
+ * of the same number of values and each bin is represented by its median, so that outliers
+ * (such as -99 of the sentence start) don't shift the values of their bins.
+ * Models with fewer distinct values than codes are stored without loss.
+ *
+ * @author Adam Liska
+ *
+ */
+public class LanguageModelCompiler {
+
+	/** Quantization of values to the codes from a first code up to 2^bits - 1.
+	 *
+	 */
+	static class Quantizer {
+		/** Values of the codes. */
+		float[] values;
+		/** Largest value of each bin. */
+		double[] limits;
+		int first;
+
+		/** Splits values into bins.
+		 *
+		 * @param data Values, they are sorted.
+		 * @param count Number of values
+		 * @param first First code of the bins, the previous codes are reserved.
+		 * @param bits Bits of a code
+		 */
+		Quantizer(double[] data, int count, int first, int bits) {
+			this.first = first;
+			values = new float[1 << bits];
+			Arrays.sort(data, 0, count);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) {
+				if ((i == 0) || (data[i] != data[i - 1])) {
+					distinct++;
+				}
+			}
+
+			int bins = values.length - first;
+			if (distinct <= bins) {
+				limits = new double[distinct];
+				int bin = 0;
+				for (int i = 0; i < count; i++) {
+					if ((i == 0) || (data[i] != data[i - 1])) {
+						limits[bin] = data[i];
+						values[first + bin] = (float) data[i];
+						bin++;
+					}
+				}
+			} else {
+				limits = new double[bins];
+				for (int bin = 0; bin < bins; bin++) {
+					int from = (int) ((long) count * bin / bins);
+					int to = (int) ((long) count * (bin + 1) / bins);
+					limits[bin] = data[to - 1];
+					values[first + bin] = (float) data[(from + to) / 2];
+				}
+			}
+		}
+
+		/** Returns the code of a value.
+		 *
+		 * @param value Value
+		 * @return Code of the first bin whose largest value isn't smaller.
+		 */
+		int getCode(double value) {
+			int bin = Arrays.binarySearch(limits, value);
+			if (bin < 0) {
+				bin = Math.min(-bin - 1, limits.length - 1);
+			} else {
+				while ((bin > 0) && (limits[bin - 1] == value)) {
+					bin--;
+				}
+			}
+			return first + bin;
+		}
+	}
+
+	/** Writes a binary language model.
+	 *
+	 * @param model Language model
+	 * @param bits Bits of the quantized values, 8 or 16.
+	 * @param file Output file path
+	 * @throws IOException Exception if there is an error writing the file.
+	 */
+	public static void compile(ArpaModel model, int bits, String file) throws IOException {
+		if ((bits != 8) && (bits != 16)) {
+			throw new IllegalArgumentException("Values can be quantized only to 8 or 16 bits!");
+		}
+
+		// entries are the keys of both maps, node << 32 | word, sorted by node and word,
+		// the empty history has an entry for every word so that its entries are indexed by the words
+		long[] keys = new long[model.size() + model.probabilities.size() + model.children.size()];
+		int count = 0;
+		for (int w = 0; w < model.size(); w++) {
+			keys[count++] = w;
+		}
+		for (int slot = 0; slot < model.probabilities.capacity(); slot++) {
+			if (model.probabilities.isUsed(slot)) {
+				keys[count++] = model.probabilities.getKey(slot);
+			}
+		}
+		for (int slot = 0; slot < model.children.capacity(); slot++) {
+			if (model.children.isUsed(slot)) {
+				keys[count++] = model.children.getKey(slot);
+			}
+		}
+		Arrays.sort(keys);
+		int entries = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if ((i == 0) || (keys[i] != keys[i - 1])) {
+				keys[entries++] = keys[i];
+			}
+		}
+		if (4L * entries > Integer.MAX_VALUE) {
+			throw new IOException("Language model is too large for a binary language model!");
+		}
+
+		// history lengths of the nodes, children are always created after their parents
+		int[] depths = new int[model.nodes];
+		for (int e = 0; e < entries; e++) {
+			int child = model.children.get(keys[e], -1);
+			if (child >= 0) {
+				depths[child] = depths[(int) (keys[e] >>> 32)] + 1;
+			}
+		}
+
+		// values of each order quantized separately, probabilities of entries of a node with history length n are of order n + 1
+		int order = model.getOrder();
+		Quantizer[] probabilities = new Quantizer[order];
+		Quantizer[] backoffs = new Quantizer[order];
+		double[] data = new double[Math.max(entries, model.nodes)];
+		for (int n = 0; n < order; n++) {
+			count = 0;
+			for (int e = 0; e < entries; e++) {
+				double probability = model.probabilities.get(keys[e], Double.NaN);
+				if ((depths[(int) (keys[e] >>> 32)] == n) && !Double.isNaN(probability) && (probability != Double.NEGATIVE_INFINITY)) {
+					data[count++] = probability;
+				}
+			}
+			probabilities[n] = new Quantizer(data, count, MappedLanguageModel.ZERO + 1, bits);
+			count = 0;
+			for (int node = 1; node < model.nodes; node++) {
+				if ((depths[node] == n + 1) && (model.backoffs[node] != 0)) {
+					data[count++] = model.backoffs[node];
+				}
+			}
+			backoffs[n] = new Quantizer(data, count, 1, bits);
+		}
+		data = null;
+
+		byte[][] words = new byte[model.size()][];
+		int wordBytes = 0;
+		for (int w = 0; w < words.length; w++) {
+			words[w] = model.getWord(w).getBytes(Utf8.UTF8);
+			wordBytes += words[w].length;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MappedLanguageModel.MAGIC);
+		out.writeInt(MappedLanguageModel.VERSION);
+		out.writeInt(order);
+		out.writeInt(words.length);
+		out.writeInt(model.nodes);
+		out.writeInt(entries);
+		out.writeInt(bits);
+		out.writeInt(wordBytes);
+
+		for (Quantizer quantizer:probabilities) {
+			for (float value:quantizer.values) {
+				out.writeFloat(value);
+			}
+		}
+		for (Quantizer quantizer:backoffs) {
+			for (float value:quantizer.values) {
+				out.writeFloat(value);
+			}
+		}
+		int entry = 0;
+		for (int node = 0; node <= model.nodes; node++) {
+			while ((entry < entries) && ((keys[entry] >>> 32) < node)) {
+				entry++;
+			}
+			out.writeInt(entry);
+		}
+		for (int node = 0; node < model.nodes; node++) {
+			writeCode(out, (model.backoffs[node] == 0) ? 0 : backoffs[depths[node] - 1].getCode(model.backoffs[node]), bits);
+		}
+		for (int e = 0; e < entries; e++) {
+			out.writeInt((int) keys[e]);
+		}
+		for (int e = 0; e < entries; e++) {
+			out.writeInt(model.children.get(keys[e], -1));
+		}
+		for (int e = 0; e < entries; e++) {
+			double probability = model.probabilities.get(keys[e], Double.NaN);
+			int code;
+			if (Double.isNaN(probability)) {
+				code = MappedLanguageModel.NONE;
+			} else if (probability == Double.NEGATIVE_INFINITY) {
+				code = MappedLanguageModel.ZERO;
+			} else {
+				code = probabilities[depths[(int) (keys[e] >>> 32)]].getCode(probability);
+			}
+			writeCode(out, code, bits);
+		}
+		int offset = 0;
+		for (byte[] word:words) {
+			out.writeInt(offset);
+			offset += word.length;
+		}
+		out.writeInt(offset);
+		for (byte[] word:words) {
+			out.write(word);
+		}
+		out.close();
+	}
+
+	private static void writeCode(DataOutputStream out, int code, int bits) throws IOException {
+		if (bits == 8) {
+			out.writeByte(code);
+		} else {
+			out.writeShort(code);
+		}
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("LanguageModelCompiler [-q 8|16] ARPA_model -o binary_model");
+	}
+
+	/** Reads an ARPA model and writes the binary model. The binary model is then used with NgramFilter -b binary_model.
+	 *
+	 * @param args Command line arguments: ARPA model file path, -o output_file_path,
+	 * optional -q bits of the quantized values (16 by default).
+	 * @throws IOException Exception if there is an error reading the model or writing the output.
+	 */
+	public static void main(String[] args) throws IOException {
+		String input = null;
+		String output = null;
+		int bits = 16;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && (i + 1 < args.length)) {
+				output = args[++i];
+			} else if (args[i].equals("-q") && (i + 1 < args.length)) {
+				bits = Integer.parseInt(args[++i]);
+			} else if (input == null) {
+				input = args[i];
+			} else {
+				input = null;
+				break;
+			}
+		}
+		if ((input == null) || (output == null) || ((bits != 8) && (bits != 16))) {
+			printHelp();
+			return;
+		}
+		compile(new ArpaModel(input), bits, output);
+	}
+}
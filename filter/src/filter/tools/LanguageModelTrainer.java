@@ -0,0 +1,676 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Training of character language models for the n-gram filter, with interpolated modified Kneser-Ney smoothing.
+ * The sentences are split into tokens the same way as by SeparateChars (see CharacterScorer.separate),
+ * so the model replaces SRILM Toolkit ngram-count -kndiscount -interpolate run on SeparateChars output,
+ * except that no n-grams are cut off.
+ *
+ * The tokens get indices of as few bits as the vocabulary needs and the n-grams of all orders are packed
+ * into longs, the first token in the highest bits. The text is counted in parallel, every thread
+ * counts into its own primitive hash maps split into shards by the n-grams. When the maps of a thread exceed
+ * its share of the memory budget, they are written to disk as runs sorted by the n-grams.
+ * The runs of each shard are then merged in parallel into sorted arrays, which are all that is kept for the estimation.
+ *
+ * @author Adam Liska
+ *
+ */
+public class LanguageModelTrainer {
+
+	public static final int DEFAULT_ORDER = 5;
+
+	static final int SENTENCE_START = 1;
+	static final int SENTENCE_END = 2;
+	/** Index of the first character token. */
+	static final int FIRST_CHARACTER = 3;
+	static final int SHARD_BITS = 4;
+	static final int SHARDS = 1 << SHARD_BITS;
+	/** Counts of a thread are written to disk before they can overflow. */
+	static final int MAX_COUNT = 1 << 30;
+	/** Log10 probability written for the sentence start, which is never predicted. */
+	static final String ZERO = "-99";
+
+	int order;
+	int threads;
+	long memory;
+
+	/** Code points of the character tokens, sorted, SpAcE is CharacterScorer.SPACE_CODE_POINT. */
+	int[] codePoints;
+	/** Token indices of the characters of the Basic Multilingual Plane. */
+	int[] characters;
+	int bits;
+
+	/** Sorted runs of each shard written to disk. */
+	List<List<File>> spilled;
+	/** Sorted n-grams of all shards, shard s spans shardStarts[s] to shardStarts[s + 1]. */
+	long[] ngrams;
+	long[] counts;
+	int[] shardStarts;
+
+	/** Interpolated probabilities of the n-grams. */
+	double[] probabilities;
+	/** Sums of the adjusted counts of the n-grams extending an n-gram, 0 if the n-gram is never extended. */
+	long[] totals;
+	/** Sums of the discounts of the n-grams extending an n-gram, the probability mass left for the lower order. */
+	double[] discounted;
+
+	/** Sorted run of n-gram counts read from a file or from memory.
+	 *
+	 */
+	static class Run {
+		DataInputStream in;
+		int remaining;
+		long[] keys;
+		int[] values;
+		int position;
+		long key;
+		int count;
+
+		Run(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			remaining = in.readInt();
+		}
+
+		Run(long[] keys, int[] values) {
+			this.keys = keys;
+			this.values = values;
+			remaining = keys.length;
+		}
+
+		/** Moves to the next n-gram.
+		 *
+		 * @return False at the end of the run.
+		 */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				if (in != null) {
+					in.close();
+				}
+				return false;
+			}
+			remaining--;
+			if (in != null) {
+				key = in.readLong();
+				count = in.readInt();
+			} else {
+				key = keys[position];
+				count = values[position];
+				position++;
+			}
+			return true;
+		}
+	}
+
+	/** Counts of the n-grams of a thread, split into shards.
+	 *
+	 */
+	class Counter {
+		LongIntMap[] shards;
+		long budget;
+		int[] tokens = new int[256];
+
+		Counter(long budget) {
+			this.budget = budget;
+			shards = new LongIntMap[SHARDS];
+			for (int s = 0; s < SHARDS; s++) {
+				shards[s] = new LongIntMap(1024);
+			}
+		}
+
+		/** Counts the n-grams of all orders of a sentence, with the sentence start and end.
+		 *
+		 * @param sentence Code points of the tokens of the sentence
+		 */
+		void count(CharacterScorer.CodePoints sentence) throws IOException {
+			int length = sentence.length + 2;
+			if (tokens.length < length) {
+				tokens = new int[sentence.values.length + 2];
+			}
+			tokens[0] = SENTENCE_START;
+			for (int i = 0; i < sentence.length; i++) {
+				tokens[i + 1] = getToken(sentence.values[i]);
+			}
+			tokens[length - 1] = SENTENCE_END;
+
+			boolean full = false;
+			for (int i = 0; i < length; i++) {
+				long key = 0;
+				for (int n = 1; (n <= order) && (n <= i + 1); n++) {
+					key |= (long) tokens[i - n + 1] << (bits * (n - 1));
+					if (shards[getShard(key)].add(key, 1) >= MAX_COUNT) {
+						full = true;
+					}
+				}
+			}
+			if (full) {
+				spill();
+			}
+		}
+
+		/** Returns an estimate of the memory taken by the maps.
+		 *
+		 * @return Size in bytes.
+		 */
+		long size() {
+			long size = 0;
+			for (LongIntMap shard:shards) {
+				size += 12L * shard.capacity();
+			}
+			return size;
+		}
+
+		/** Writes the counts of every shard to a sorted run and clears the maps.
+		 *
+		 */
+		void spill() throws IOException {
+			for (int s = 0; s < SHARDS; s++) {
+				if (shards[s].size() == 0) {
+					continue;
+				}
+				long[] keys = getSortedKeys(shards[s]);
+				File file = File.createTempFile("ngrams", ".run");
+				file.deleteOnExit();
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+				try {
+					out.writeInt(keys.length);
+					for (long key:keys) {
+						out.writeLong(key);
+						out.writeInt(shards[s].get(key, 0));
+					}
+				} finally {
+					out.close();
+				}
+				synchronized (spilled) {
+					spilled.get(s).add(file);
+				}
+				shards[s] = new LongIntMap(1024);
+			}
+		}
+
+		/** Turns the counts of a shard into a sorted run in memory and clears the map.
+		 *
+		 * @param s Shard
+		 * @return Sorted run
+		 */
+		Run toRun(int s) {
+			long[] keys = getSortedKeys(shards[s]);
+			int[] values = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				values[i] = shards[s].get(keys[i], 0);
+			}
+			shards[s] = null;
+			return new Run(keys, values);
+		}
+	}
+
+	/** Initialises a trainer.
+	 *
+	 * @param order Order of the model
+	 * @param threads Number of threads
+	 * @param memory Memory budget of the counting in bytes, spread among the threads.
+	 */
+	public LanguageModelTrainer(int order, int threads, long memory) {
+		this.order = order;
+		this.threads = threads;
+		this.memory = memory;
+	}
+
+	/** Counts the n-grams of a text and estimates the model.
+	 *
+	 * @param textFile Text file path, one sentence per line.
+	 * @throws IOException Exception if there is an error reading the text or writing the runs.
+	 */
+	public void train(String textFile) throws IOException {
+		MappedCorpus corpus = new MappedCorpus(textFile);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		spilled = new ArrayList<List<File>>();
+		for (int s = 0; s < SHARDS; s++) {
+			spilled.add(new ArrayList<File>());
+		}
+		try {
+			List<MappedCorpus.Chunk> chunks = corpus.split(MappedCorpus.CHUNK_SIZE);
+			readVocabulary(chunks, workers);
+			merge(count(chunks, workers), workers);
+		} finally {
+			workers.shutdownNow();
+			corpus.close();
+			for (List<File> runs:spilled) {
+				for (File run:runs) {
+					run.delete();
+				}
+			}
+		}
+		estimate();
+	}
+
+	/** Finds the characters of the text and sets the token indices.
+	 *
+	 */
+	private void readVocabulary(final List<MappedCorpus.Chunk> chunks, ExecutorService workers) throws IOException {
+		final AtomicInteger next = new AtomicInteger();
+		List<Callable<BitSet>> tasks = new ArrayList<Callable<BitSet>>();
+		for (int t = 0; t < threads; t++) {
+			tasks.add(new Callable<BitSet>() {
+				public BitSet call() throws IOException {
+					BitSet found = new BitSet(Character.MAX_VALUE + 1);
+					CharacterScorer.CodePoints sentence = new CharacterScorer.CodePoints();
+					for (int c = next.getAndIncrement(); c < chunks.size(); c = next.getAndIncrement()) {
+						for (String line:chunks.get(c).readLines()) {
+							CharacterScorer.separate(line, sentence);
+							for (int i = 0; i < sentence.length; i++) {
+								found.set(sentence.values[i]);
+							}
+						}
+					}
+					return found;
+				}
+			});
+		}
+		BitSet found = new BitSet();
+		for (BitSet part:invokeAll(workers, tasks)) {
+			found.or(part);
+		}
+
+		codePoints = new int[found.cardinality()];
+		characters = new int[Character.MAX_VALUE + 1];
+		int i = 0;
+		for (int codePoint = found.nextSetBit(0); codePoint >= 0; codePoint = found.nextSetBit(codePoint + 1)) {
+			if (codePoint <= Character.MAX_VALUE) {
+				characters[codePoint] = FIRST_CHARACTER + i;
+			}
+			codePoints[i++] = codePoint;
+		}
+		bits = 32 - Integer.numberOfLeadingZeros(FIRST_CHARACTER + codePoints.length - 1);
+		if (bits * order > 63) {
+			throw new IllegalArgumentException("Order " + order + " is too high for " + codePoints.length + " different characters!");
+		}
+	}
+
+	/** Counts the n-grams of the text in parallel.
+	 *
+	 * @return Counters of the threads, with the counts not written to disk.
+	 */
+	private List<Counter> count(final List<MappedCorpus.Chunk> chunks, ExecutorService workers) throws IOException {
+		final AtomicInteger next = new AtomicInteger();
+		List<Callable<Counter>> tasks = new ArrayList<Callable<Counter>>();
+		for (int t = 0; t < threads; t++) {
+			tasks.add(new Callable<Counter>() {
+				public Counter call() throws IOException {
+					Counter counter = new Counter(memory / threads);
+					CharacterScorer.CodePoints sentence = new CharacterScorer.CodePoints();
+					for (int c = next.getAndIncrement(); c < chunks.size(); c = next.getAndIncrement()) {
+						for (String line:chunks.get(c).readLines()) {
+							CharacterScorer.separate(line, sentence);
+							counter.count(sentence);
+						}
+						if (counter.size() > counter.budget) {
+							counter.spill();
+						}
+					}
+					return counter;
+				}
+			});
+		}
+		return invokeAll(workers, tasks);
+	}
+
+	/** Merges the runs of each shard, in parallel, into the sorted arrays of all n-grams.
+	 *
+	 */
+	private void merge(final List<Counter> counters, ExecutorService workers) throws IOException {
+		List<Callable<Object[]>> tasks = new ArrayList<Callable<Object[]>>();
+		for (int s = 0; s < SHARDS; s++) {
+			final int shard = s;
+			tasks.add(new Callable<Object[]>() {
+				public Object[] call() throws IOException {
+					return merge(shard, counters);
+				}
+			});
+		}
+		List<Object[]> shards = invokeAll(workers, tasks);
+
+		shardStarts = new int[SHARDS + 1];
+		for (int s = 0; s < SHARDS; s++) {
+			shardStarts[s + 1] = shardStarts[s] + ((long[]) shards.get(s)[0]).length;
+		}
+		ngrams = new long[shardStarts[SHARDS]];
+		counts = new long[shardStarts[SHARDS]];
+		for (int s = 0; s < SHARDS; s++) {
+			long[] keys = (long[]) shards.get(s)[0];
+			System.arraycopy(keys, 0, ngrams, shardStarts[s], keys.length);
+			System.arraycopy((long[]) shards.get(s)[1], 0, counts, shardStarts[s], keys.length);
+			shards.set(s, null);
+		}
+	}
+
+	/** Merges the runs of a shard.
+	 *
+	 * @return Sorted n-grams and their counts.
+	 */
+	private Object[] merge(int shard, List<Counter> counters) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(counters.size() + spilled.get(shard).size() + 1, new Comparator<Run>() {
+			public int compare(Run first, Run second) {
+				return Long.compare(first.key, second.key);
+			}
+		});
+		for (File file:spilled.get(shard)) {
+			Run run = new Run(file);
+			if (run.next()) {
+				queue.add(run);
+			}
+		}
+		for (Counter counter:counters) {
+			Run run = counter.toRun(shard);
+			if (run.next()) {
+				queue.add(run);
+			}
+		}
+
+		long[] keys = new long[1024];
+		long[] values = new long[1024];
+		int size = 0;
+		while (!queue.isEmpty()) {
+			Run run = queue.poll();
+			if ((size > 0) && (keys[size - 1] == run.key)) {
+				values[size - 1] += run.count;
+			} else {
+				if (size == keys.length) {
+					keys = Arrays.copyOf(keys, 2 * size);
+					values = Arrays.copyOf(values, 2 * size);
+				}
+				keys[size] = run.key;
+				values[size] = run.count;
+				size++;
+			}
+			if (run.next()) {
+				queue.add(run);
+			}
+		}
+		return new Object[] {Arrays.copyOf(keys, size), Arrays.copyOf(values, size)};
+	}
+
+	/** Computes the interpolated modified Kneser-Ney probabilities and the back-off weights.
+	 * Adjusted counts are the counts of the n-grams of the highest order and of the n-grams starting with the sentence start,
+	 * the numbers of different tokens preceding the other n-grams. The discounts of each order are estimated
+	 * from the numbers of n-grams with adjusted counts 1 to 4.
+	 *
+	 */
+	private void estimate() {
+		int size = ngrams.length;
+		long[] adjusted = new long[size];
+		for (int g = 0; g < size; g++) {
+			int n = getOrder(ngrams[g]);
+			if (n > 1) {
+				adjusted[find(getSuffix(ngrams[g], n))]++;
+			}
+		}
+		long[][] countsOfCounts = new long[order + 1][5];
+		for (int g = 0; g < size; g++) {
+			int n = getOrder(ngrams[g]);
+			if ((n == order) || (getFirst(ngrams[g], n) == SENTENCE_START)) {
+				adjusted[g] = counts[g];
+			}
+			if ((ngrams[g] != SENTENCE_START) && (adjusted[g] <= 4)) {
+				countsOfCounts[n][(int) adjusted[g]]++;
+			}
+		}
+		double[][] discounts = new double[order + 1][];
+		for (int n = 1; n <= order; n++) {
+			discounts[n] = getDiscounts(countsOfCounts[n]);
+		}
+
+		totals = new long[size];
+		discounted = new double[size];
+		long rootTotal = 0;
+		double rootDiscounted = 0;
+		int vocabulary = 0;
+		for (int g = 0; g < size; g++) {
+			int n = getOrder(ngrams[g]);
+			double discount = discounts[n][(int) Math.min(adjusted[g], 3)];
+			if (n == 1) {
+				if (ngrams[g] != SENTENCE_START) {
+					rootTotal += adjusted[g];
+					rootDiscounted += discount;
+					vocabulary++;
+				}
+			} else {
+				int history = find(ngrams[g] >>> bits);
+				totals[history] += adjusted[g];
+				discounted[history] += discount;
+			}
+		}
+
+		probabilities = new double[size];
+		for (int n = 1; n <= order; n++) {
+			for (int g = 0; g < size; g++) {
+				if (getOrder(ngrams[g]) != n) {
+					continue;
+				}
+				double discount = discounts[n][(int) Math.min(adjusted[g], 3)];
+				if (n == 1) {
+					if (ngrams[g] != SENTENCE_START) {
+						probabilities[g] = (adjusted[g] - discount) / rootTotal + rootDiscounted / rootTotal / vocabulary;
+					}
+				} else {
+					int history = find(ngrams[g] >>> bits);
+					double lower = probabilities[find(getSuffix(ngrams[g], n))];
+					probabilities[g] = (adjusted[g] - discount + discounted[history] * lower) / totals[history];
+				}
+			}
+		}
+	}
+
+	/** Estimates the modified Kneser-Ney discounts of an order (Chen and Goodman), kept within their valid ranges.
+	 *
+	 * @param countsOfCounts Numbers of n-grams with adjusted counts 1 to 4.
+	 * @return Discounts of counts 1, 2 and 3 or more, at indices 1 to 3.
+	 */
+	static double[] getDiscounts(long[] countsOfCounts) {
+		double[] discounts = new double[4];
+		double n1 = countsOfCounts[1];
+		double n2 = countsOfCounts[2];
+		double y = (n1 + 2 * n2 > 0) ? n1 / (n1 + 2 * n2) : 0.5;
+		for (int k = 1; k <= 3; k++) {
+			double nk = countsOfCounts[k];
+			double discount = (nk > 0) ? k - (k + 1) * y * countsOfCounts[k + 1] / nk : y;
+			discounts[k] = Math.max(0, Math.min(k, discount));
+		}
+		return discounts;
+	}
+
+	/** Returns the number of tokens of a packed n-gram.
+	 *
+	 */
+	private int getOrder(long ngram) {
+		return (64 - Long.numberOfLeadingZeros(ngram) + bits - 1) / bits;
+	}
+
+	private int getFirst(long ngram, int n) {
+		return (int) (ngram >>> (bits * (n - 1)));
+	}
+
+	/** Returns the n-gram without its first token.
+	 *
+	 */
+	private long getSuffix(long ngram, int n) {
+		return ngram & ((1L << (bits * (n - 1))) - 1);
+	}
+
+	private static int getShard(long ngram) {
+		return (int) ((ngram * 0x9E3779B97F4A7C15L) >>> (64 - SHARD_BITS));
+	}
+
+	/** Finds an n-gram by binary search in its shard.
+	 *
+	 * @param ngram Packed n-gram
+	 * @return Index of the n-gram, negative if it wasn't counted.
+	 */
+	private int find(long ngram) {
+		int shard = getShard(ngram);
+		return Arrays.binarySearch(ngrams, shardStarts[shard], shardStarts[shard + 1], ngram);
+	}
+
+	private int getToken(int codePoint) {
+		if (codePoint <= Character.MAX_VALUE) {
+			return characters[codePoint];
+		}
+		return FIRST_CHARACTER + Arrays.binarySearch(codePoints, codePoint);
+	}
+
+	private String getWord(int token) {
+		if (token == SENTENCE_START) {
+			return LanguageModel.SENTENCE_START;
+		} else if (token == SENTENCE_END) {
+			return LanguageModel.SENTENCE_END;
+		}
+		int codePoint = codePoints[token - FIRST_CHARACTER];
+		if (codePoint == CharacterScorer.SPACE_CODE_POINT) {
+			return CharacterScorer.SPACE;
+		}
+		return new String(Character.toChars(codePoint));
+	}
+
+	private static long[] getSortedKeys(LongIntMap map) {
+		long[] keys = new long[map.size()];
+		int count = 0;
+		for (int slot = 0; slot < map.capacity(); slot++) {
+			if (map.isUsed(slot)) {
+				keys[count++] = map.getKey(slot);
+			}
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	private static <T> List<T> invokeAll(ExecutorService workers, List<Callable<T>> tasks) throws IOException {
+		try {
+			List<T> results = new ArrayList<T>();
+			for (Future<T> result:workers.invokeAll(tasks)) {
+				results.add(result.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while training the language model!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("Error training the language model!", e.getCause());
+		}
+	}
+
+	/** Writes the model in ARPA format, the n-grams of each order in the order of the shards.
+	 *
+	 * @param file Output file path
+	 * @throws IOException Exception if there is an error writing the file.
+	 */
+	public void writeArpa(String file) throws IOException {
+		int[] orderCounts = new int[order + 1];
+		for (long ngram:ngrams) {
+			orderCounts[getOrder(ngram)]++;
+		}
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Utf8.UTF8), 1 << 16);
+		try {
+			out.write("\n\\data\\\n");
+			for (int n = 1; n <= order; n++) {
+				out.write("ngram " + n + "=" + orderCounts[n] + "\n");
+			}
+			StringBuilder line = new StringBuilder();
+			for (int n = 1; n <= order; n++) {
+				out.write("\n\\" + n + "-grams:\n");
+				for (int g = 0; g < ngrams.length; g++) {
+					if (getOrder(ngrams[g]) != n) {
+						continue;
+					}
+					line.setLength(0);
+					if (ngrams[g] == SENTENCE_START) {
+						line.append(ZERO);
+					} else {
+						line.append((float) Math.log10(probabilities[g]));
+					}
+					line.append('\t');
+					for (int i = n - 1; i >= 0; i--) {
+						line.append(getWord((int) (ngrams[g] >>> (bits * i)) & ((1 << bits) - 1)));
+						line.append((i > 0) ? ' ' : '\t');
+					}
+					if ((n < order) && (totals[g] > 0)) {
+						line.append((float) Math.log10(discounted[g] / totals[g]));
+					} else {
+						line.setLength(line.length() - 1);
+					}
+					line.append('\n');
+					out.append(line);
+				}
+			}
+			out.write("\n\\end\\\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("LanguageModelTrainer [-n order] [-j number_of_threads] [-m memory_MB] [-b] [-q 8|16] text_file model");
+	}
+
+	/** Trains a character language model and writes it in ARPA format, or as a binary model with -b or -q.
+	 *
+	 * @param args Command line arguments: text file path (one sentence per line) and model file path, both required.
+	 * Optional -n order of the model (5 by default), -j number of threads (all available processors by default),
+	 * -m memory budget of the counting in megabytes (half of the maximum heap by default), -b writes a binary model
+	 * with values quantized to 16 bits, -q bits to the given number of bits.
+	 * @throws IOException Exception if there is an error reading the text or writing the model.
+	 */
+	public static void main(String[] args) throws IOException {
+		int order = DEFAULT_ORDER;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long memory = Runtime.getRuntime().maxMemory() / 2;
+		int bits = 0;
+		ArrayList<String> files = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-n") && (i + 1 < args.length)) {
+					order = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-j") && (i + 1 < args.length)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-m") && (i + 1 < args.length)) {
+					memory = Long.parseLong(args[++i]) << 20;
+				} else if (args[i].equals("-b")) {
+					bits = (bits == 0) ? 16 : bits;
+				} else if (args[i].equals("-q") && (i + 1 < args.length)) {
+					bits = Integer.parseInt(args[++i]);
+				} else {
+					files.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			files.clear();
+		}
+		if ((files.size() != 2) || (order < 1) || (threads < 1) || ((bits != 0) && (bits != 8) && (bits != 16))) {
+			printHelp();
+			return;
+		}
+
+		LanguageModelTrainer trainer = new LanguageModelTrainer(order, threads, memory);
+		trainer.train(files.get(0));
+		if (bits == 0) {
+			trainer.writeArpa(files.get(1));
+		} else {
+			File arpa = File.createTempFile("model", ".arpa");
+			try {
+				trainer.writeArpa(arpa.getPath());
+				trainer = null;
+				LanguageModelCompiler.compile(new ArpaModel(arpa.getPath()), bits, files.get(1));
+			} finally {
+				arpa.delete();
+			}
+		}
+	}
+}
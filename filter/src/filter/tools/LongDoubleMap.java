@@ -0,0 +1,140 @@
+package filter.tools;
+
+import java.util.Arrays;
+
+/** Map from long keys to double values stored in an open-addressing hash table, without boxing.
+ * Long.MIN_VALUE marks empty slots and cannot be used as a key.
+ *
+ * @author Adam Liska
+ *
+ */
+public class LongDoubleMap {
+
+	static final long EMPTY = Long.MIN_VALUE;
+
+	long[] keys;
+	double[] values;
+	int size;
+
+	/** Initialises an empty map.
+	 *
+	 * @param expected Expected number of entries.
+	 */
+	public LongDoubleMap(int expected) {
+		int capacity = 16;
+		while (capacity < 2 * expected) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+	}
+
+	/** Sets the value of a key.
+	 *
+	 * @param key Key
+	 * @param value Value
+	 */
+	public void put(long key, double value) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Long.MIN_VALUE cannot be used as a key!");
+		}
+		int i = find(key);
+		if (keys[i] == EMPTY) {
+			keys[i] = key;
+			values[i] = value;
+			if (++size > keys.length / 2) {
+				rehash();
+			}
+		} else {
+			values[i] = value;
+		}
+	}
+
+	/** Returns the value of a key.
+	 *
+	 * @param key Key
+	 * @param missing Value returned if the key isn't in the map.
+	 * @return Value of the key.
+	 */
+	public double get(long key, double missing) {
+		int i = find(key);
+		return (keys[i] == EMPTY) ? missing : values[i];
+	}
+
+	/** Checks whether the map contains a key.
+	 *
+	 * @param key Key
+	 * @return True if the key is in the map.
+	 */
+	public boolean containsKey(long key) {
+		return keys[find(key)] != EMPTY;
+	}
+
+	/** Returns the number of entries.
+	 *
+	 * @return Size of the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the number of slots of the table, the upper bound of the slot indices of entries.
+	 *
+	 * @return Capacity of the table.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/** Checks whether a slot of the table holds an entry. Together with getKey and getValue,
+	 * the entries are iterated without allocation.
+	 *
+	 * @param slot Slot index
+	 * @return True if the slot holds an entry.
+	 */
+	public boolean isUsed(int slot) {
+		return keys[slot] != EMPTY;
+	}
+
+	/** Returns the key in a slot.
+	 *
+	 * @param slot Slot index
+	 * @return Key
+	 */
+	public long getKey(int slot) {
+		return keys[slot];
+	}
+
+	/** Returns the value in a slot.
+	 *
+	 * @param slot Slot index
+	 * @return Value
+	 */
+	public double getValue(int slot) {
+		return values[slot];
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int i = LongHashSet.hash(key) & mask;
+		while ((keys[i] != EMPTY) && (keys[i] != key)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[2 * oldKeys.length];
+		Arrays.fill(keys, EMPTY);
+		values = new double[2 * oldKeys.length];
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
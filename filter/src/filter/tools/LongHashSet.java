@@ -0,0 +1,106 @@
+package filter.tools;
+
+import java.util.Arrays;
+
+/** Set of long values stored in an open-addressing hash table, without boxing.
+ *
+ * @author Adam Liska
+ *
+ */
+public class LongHashSet {
+
+	long[] table;
+	int size;
+	boolean containsZero;
+
+	/** Initialises an empty set.
+	 *
+	 * @param expected Expected number of values.
+	 */
+	public LongHashSet(int expected) {
+		int capacity = 16;
+		while (capacity < 2 * expected) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	/** Adds a value.
+	 *
+	 * @param value Value
+	 * @return True if the value wasn't in the set.
+	 */
+	public boolean add(long value) {
+		if (value == 0) {
+			boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+		int mask = table.length - 1;
+		int i = hash(value) & mask;
+		while (table[i] != 0) {
+			if (table[i] == value) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = value;
+		if (++size > table.length / 2) {
+			rehash();
+		}
+		return true;
+	}
+
+	/** Checks whether the set contains a value.
+	 *
+	 * @param value Value
+	 * @return True if the value is in the set.
+	 */
+	public boolean contains(long value) {
+		if (value == 0) {
+			return containsZero;
+		}
+		int mask = table.length - 1;
+		int i = hash(value) & mask;
+		while (table[i] != 0) {
+			if (table[i] == value) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/** Returns the number of values.
+	 *
+	 * @return Size of the set.
+	 */
+	public int size() {
+		return containsZero ? size + 1 : size;
+	}
+
+	/** Removes all values, keeping the table.
+	 *
+	 */
+	public void clear() {
+		Arrays.fill(table, 0);
+		size = 0;
+		containsZero = false;
+	}
+
+	private void rehash() {
+		long[] old = table;
+		table = new long[2 * old.length];
+		size = 0;
+		for (long value:old) {
+			if (value != 0) {
+				add(value);
+			}
+		}
+	}
+
+	static int hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,270 @@
+package filter.tools;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Memory-mapped UTF-8 corpus file split into chunks of whole lines, so that the chunks can be
+ * decoded and processed by several threads.
+ *
+ * @author Adam Liska
+ *
+ */
+public class MappedCorpus {
+
+	public static final long CHUNK_SIZE = 4 << 20;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	long size;
+
+	/** Chunk of the corpus starting at the beginning of a line and ending after a newline or at the end of the file.
+	 *
+	 */
+	public class Chunk {
+		long start;
+		long end;
+		long firstLine = -1;
+
+		Chunk(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/** Returns the number of the first line of the chunk, counted from 0.
+		 *
+		 * @return Line number, -1 if the lines haven't been counted.
+		 */
+		public long getFirstLine() {
+			return firstLine;
+		}
+
+		/** Maps the chunk into memory.
+		 *
+		 * @return Buffer with the chunk.
+		 * @throws IOException Exception if there is an error mapping the file.
+		 */
+		public MappedByteBuffer map() throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		}
+
+		/** Reads the chunk.
+		 *
+		 * @return Bytes of the chunk.
+		 * @throws IOException Exception if there is an error mapping the file.
+		 */
+		public byte[] read() throws IOException {
+			byte[] bytes = new byte[(int) (end - start)];
+			map().get(bytes);
+			return bytes;
+		}
+
+		/** Decodes the lines of the chunk. Line terminators (\n or \r\n) are not included.
+		 *
+		 * @return Lines of the chunk.
+		 * @throws IOException Exception if there is an error mapping the file.
+		 */
+		public String[] readLines() throws IOException {
+			byte[] bytes = read();
+			int[] lines = findLines(bytes);
+			String[] result = new String[lines.length / 2];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = new String(bytes, lines[2 * i], lines[2 * i + 1] - lines[2 * i], Utf8.UTF8);
+			}
+			return result;
+		}
+
+		/** Counts the lines of the chunk.
+		 *
+		 * @return Number of lines.
+		 * @throws IOException Exception if there is an error mapping the file.
+		 */
+		public int countLines() throws IOException {
+			MappedByteBuffer buffer = map();
+			int lines = 0;
+			int length = buffer.limit();
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(i) == '\n') {
+					lines++;
+				}
+			}
+			if ((length > 0) && (buffer.get(length - 1) != '\n')) {
+				lines++;
+			}
+			return lines;
+		}
+	}
+
+	/** Finds the lines in a chunk. Line terminators (\n or \r\n) are not included.
+	 *
+	 * @param bytes Bytes of the chunk.
+	 * @return Start and end of each line.
+	 */
+	public static int[] findLines(byte[] bytes) {
+		int[] lines = new int[2 * (bytes.length / 64 + 1)];
+		int count = 0;
+		int lineStart = 0;
+		for (int i = 0; i <= bytes.length; i++) {
+			if ((i == bytes.length) || (bytes[i] == '\n')) {
+				if ((i == bytes.length) && (lineStart == i)) {
+					break;
+				}
+				if (count == lines.length) {
+					lines = Arrays.copyOf(lines, 2 * lines.length);
+				}
+				lines[count++] = lineStart;
+				lines[count++] = ((i > lineStart) && (bytes[i - 1] == '\r')) ? i - 1 : i;
+				lineStart = i + 1;
+			}
+		}
+		return Arrays.copyOf(lines, count);
+	}
+
+	/** Opens a corpus file.
+	 *
+	 * @param path Corpus file path
+	 * @throws IOException Exception if there is an error opening the file.
+	 */
+	public MappedCorpus(String path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		size = channel.size();
+	}
+
+	/** Splits the corpus into chunks of approximately the given size, aligned on newlines.
+	 *
+	 * @param chunkSize Chunk size in bytes.
+	 * @return Chunks in the order of the corpus.
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	public List<Chunk> split(long chunkSize) throws IOException {
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		ByteBuffer window = ByteBuffer.allocate(1 << 16);
+		long start = 0;
+		while (start < size) {
+			long end = start + chunkSize;
+			if (end >= size) {
+				end = size;
+			} else {
+				end = findLineEnd(end, window);
+			}
+			chunks.add(new Chunk(start, end));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/** Splits the corpus into chunks of approximately the given size, aligned on records consisting 
+	 * of a fixed number of lines, e.g. the three lines of a GIZA++ A3 record. The first line numbers 
+	 * of the chunks are set.
+	 *
+	 * @param chunkSize Chunk size in bytes.
+	 * @param recordLines Number of lines of a record.
+	 * @param threads Number of threads counting the lines.
+	 * @return Chunks in the order of the corpus, each starting with the first line of a record.
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	public List<Chunk> splitRecords(long chunkSize, int recordLines, int threads) throws IOException {
+		List<Chunk> lineChunks = split(chunkSize);
+		countLines(lineChunks, threads);
+
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		ByteBuffer window = ByteBuffer.allocate(1 << 16);
+		for (Chunk lineChunk:lineChunks) {
+			long start = lineChunk.start;
+			long line = lineChunk.firstLine;
+			while ((line % recordLines != 0) && (start < size)) {
+				start = findLineEnd(start, window);
+				line++;
+			}
+			if ((start < size) && (chunks.isEmpty() || (start > chunks.get(chunks.size() - 1).start))) {
+				if (!chunks.isEmpty()) {
+					chunks.get(chunks.size() - 1).end = start;
+				}
+				Chunk chunk = new Chunk(start, size);
+				chunk.firstLine = line;
+				chunks.add(chunk);
+			}
+		}
+		return chunks;
+	}
+
+	/** Finds the position after the first newline at or after the given position.
+	 *
+	 * @param position Position in the file.
+	 * @param window Buffer used for reading.
+	 * @return Position after the newline, the file size if there is none.
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	private long findLineEnd(long position, ByteBuffer window) throws IOException {
+		while (position < size) {
+			window.clear();
+			int read = channel.read(window, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (window.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/** Counts the lines of all chunks in parallel and sets their first line numbers.
+	 *
+	 * @param chunks Chunks in the order of the corpus.
+	 * @param threads Number of threads.
+	 * @return Number of lines of all chunks.
+	 * @throws IOException Exception if there is an error reading the file.
+	 */
+	public long countLines(List<Chunk> chunks, int threads) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+			for (final Chunk chunk:chunks) {
+				counts.add(workers.submit(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						return chunk.countLines();
+					}
+				}));
+			}
+			long line = 0;
+			for (int i = 0; i < chunks.size(); i++) {
+				chunks.get(i).firstLine = line;
+				line += counts.get(i).get();
+			}
+			return line;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while counting lines!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("Error counting lines!", e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/** Returns the size of the corpus file.
+	 *
+	 * @return Size in bytes.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/** Closes the corpus file.
+	 *
+	 * @throws IOException Exception if there is an error closing the file.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
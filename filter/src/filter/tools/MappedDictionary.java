@@ -0,0 +1,159 @@
+package filter.tools;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Binary dictionary produced by DictionaryCompiler, memory-mapped and queried in place.
+ * Several processes using the same file share it in the page cache.
+ *
+ * The file consists of a header (magic, version, number of words, match keys, key references
+ * and word bytes) and the following sections:
+ * word offsets (int[words + 1]), reference offsets (int[words + 1]), key references (int[references]),
+ * packed match keys (long[keys]), match key lengths (byte[keys]) and the UTF-8 encoded words,
+ * sorted by their bytes.
+ *
+ * @author Adam Liska
+ *
+ */
+public class MappedDictionary implements TranslationIndex {
+
+	public static final int MAGIC = 0x534c4f56;
+	public static final int VERSION = 1;
+	static final int HEADER = 6 * 4;
+
+	MappedByteBuffer buffer;
+	int words;
+	int wordOffsets;
+	int referenceOffsets;
+	int references;
+	int keys;
+	int keyLengths;
+	int wordBytes;
+
+	/** Maps a binary dictionary.
+	 *
+	 * @param file Binary dictionary file path
+	 * @throws IOException Exception if there is an error reading the file or it isn't a binary dictionary.
+	 */
+	public MappedDictionary(String file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+		if ((buffer.limit() < HEADER) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+			throw new IOException("Not a binary dictionary: " + file);
+		}
+		words = buffer.getInt(8);
+		int keyCount = buffer.getInt(12);
+		int referenceCount = buffer.getInt(16);
+
+		wordOffsets = HEADER;
+		referenceOffsets = wordOffsets + 4 * (words + 1);
+		references = referenceOffsets + 4 * (words + 1);
+		keys = references + 4 * referenceCount;
+		keyLengths = keys + 8 * keyCount;
+		wordBytes = keyLengths + keyCount;
+	}
+
+	/** Returns the number of words.
+	 *
+	 * @return Number of dictionary words.
+	 */
+	public int size() {
+		return words;
+	}
+
+	public boolean isCovered(String word, Target target) {
+		int entry = find(word);
+		if (entry < 0) {
+			return MatchKeys.isCovered(word, target);
+		}
+		int end = buffer.getInt(referenceOffsets + 4 * (entry + 1));
+		for (int r = buffer.getInt(referenceOffsets + 4 * entry); r < end; r++) {
+			int key = buffer.getInt(references + 4 * r);
+			if (target.contains(buffer.getLong(keys + 8 * key), buffer.get(keyLengths + key))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Finds a word by binary search. The word is compared with the UTF-8 encoded dictionary words
+	 * without encoding it first.
+	 *
+	 * @param word Word
+	 * @return Word number, -1 if the word isn't in the dictionary.
+	 */
+	int find(String word) {
+		int low = 0;
+		int high = words - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(middle, word);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/** Compares a dictionary word with a word, byte by byte as unsigned values. The word is encoded 
+	 * one character at a time the way String.getBytes does, i.e. unpaired surrogates are encoded as '?'.
+	 *
+	 * @param entry Word number
+	 * @param word Word
+	 * @return Negative, zero or positive if the dictionary word is smaller, equal or greater.
+	 */
+	private int compare(int entry, String word) {
+		int i = wordBytes + buffer.getInt(wordOffsets + 4 * entry);
+		int end = wordBytes + buffer.getInt(wordOffsets + 4 * (entry + 1));
+		int length = word.length();
+		for (int c = 0; c < length; c++) {
+			int codePoint = word.charAt(c);
+			if (Character.isSurrogate((char) codePoint)) {
+				if (Character.isHighSurrogate((char) codePoint) && (c + 1 < length) && Character.isLowSurrogate(word.charAt(c + 1))) {
+					codePoint = Character.toCodePoint((char) codePoint, word.charAt(++c));
+				} else {
+					codePoint = '?';
+				}
+			}
+
+			// the bytes of the character, the first one in the highest byte
+			int encoded;
+			int count;
+			if (codePoint < 0x80) {
+				encoded = codePoint;
+				count = 1;
+			} else if (codePoint < 0x800) {
+				encoded = ((0xc0 | (codePoint >> 6)) << 8) | (0x80 | (codePoint & 0x3f));
+				count = 2;
+			} else if (codePoint < 0x10000) {
+				encoded = ((0xe0 | (codePoint >> 12)) << 16) | ((0x80 | ((codePoint >> 6) & 0x3f)) << 8) | (0x80 | (codePoint & 0x3f));
+				count = 3;
+			} else {
+				encoded = ((0xf0 | (codePoint >> 18)) << 24) | ((0x80 | ((codePoint >> 12) & 0x3f)) << 16)
+						| ((0x80 | ((codePoint >> 6) & 0x3f)) << 8) | (0x80 | (codePoint & 0x3f));
+				count = 4;
+			}
+			for (int shift = 8 * (count - 1); shift >= 0; shift -= 8) {
+				if (i == end) {
+					// the dictionary word is a prefix of the word
+					return -1;
+				}
+				int difference = (buffer.get(i++) & 0xff) - ((encoded >>> shift) & 0xff);
+				if (difference != 0) {
+					return difference;
+				}
+			}
+		}
+		return end - i;
+	}
+}
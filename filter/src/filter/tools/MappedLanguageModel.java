@@ -0,0 +1,208 @@
+package filter.tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/** Binary language model produced by LanguageModelCompiler, memory-mapped and queried in place
+ * without allocation. Several scorers and processes using the same file share it in the page cache.
+ *
+ * The model is the trie of reversed histories of ArpaModel. Every history node has a range of entries
+ * sorted by word, an entry holds the quantized probability of the word following the history
+ * and the child history node extended by the word, either of them may be missing.
+ *
+ * The file consists of a header (magic, version, order, number of words, nodes and entries,
+ * bits of the quantized values, bytes of the words) and the following sections:
+ * probability values (float[order][2^bits]), back-off values (float[order][2^bits]), node entry offsets (int[nodes + 1]),
+ * node back-off codes, entry words (int[entries]), entry children (int[entries], -1 for none),
+ * entry probability codes, word offsets (int[words + 1]) and the UTF-8 encoded words in the order of their indices.
+ * The empty history, node 0, has an entry for every word, in the order of the word indices.
+ * Codes are 8 or 16 bits, probability code 0 stands for no probability and 1 for zero probability,
+ * back-off code 0 stands for no back-off weight. The values of each order have their own table,
+ * the entries of a node with history length n hold probabilities of order n + 1, its back-off weight is of order n.
+ *
+ * @author Adam Liska
+ *
+ */
+public class MappedLanguageModel implements LanguageModel {
+
+	public static final int MAGIC = 0x534c4c4d;
+	public static final int VERSION = 1;
+	static final int HEADER = 8 * 4;
+	/** Probability code of missing probabilities. */
+	static final int NONE = 0;
+	/** Probability code of zero probabilities. */
+	static final int ZERO = 1;
+
+	int order;
+	int nodes;
+	int entries;
+	int bits;
+	int codes;
+	/** Values of the codes of each order, order n starts at (n - 1) * codes. */
+	float[] probabilityValues;
+	float[] backoffValues;
+	IntBuffer nodeOffsets;
+	ByteBuffer backoffCodes;
+	IntBuffer entryWords;
+	IntBuffer entryChildren;
+	ByteBuffer probabilityCodes;
+	String[] words;
+	HashMap<String, Integer> indices;
+
+	/** Maps a binary language model.
+	 *
+	 * @param file Binary language model file path
+	 * @throws IOException Exception if there is an error reading the file or it isn't a binary language model.
+	 */
+	public MappedLanguageModel(String file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER, channel.size()));
+			if ((header.limit() < HEADER) || (header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+				throw new IOException("Not a binary language model: " + file);
+			}
+			order = header.getInt(8);
+			int wordCount = header.getInt(12);
+			nodes = header.getInt(16);
+			entries = header.getInt(20);
+			bits = header.getInt(24);
+			int wordBytes = header.getInt(28);
+			if (((bits != 8) && (bits != 16)) || (entries < wordCount)) {
+				throw new IOException("Corrupted binary language model!");
+			}
+			codes = 1 << bits;
+
+			long offset = HEADER;
+			int tables = order * codes;
+			ByteBuffer values = map(channel, offset, 8L * tables);
+			offset += 8L * tables;
+			probabilityValues = new float[tables];
+			backoffValues = new float[tables];
+			for (int i = 0; i < tables; i++) {
+				probabilityValues[i] = values.getFloat(4 * i);
+				backoffValues[i] = values.getFloat(4 * (tables + i));
+			}
+			nodeOffsets = map(channel, offset, 4L * (nodes + 1)).asIntBuffer();
+			offset += 4L * (nodes + 1);
+			backoffCodes = map(channel, offset, (long) bits / 8 * nodes);
+			offset += (long) bits / 8 * nodes;
+			entryWords = map(channel, offset, 4L * entries).asIntBuffer();
+			offset += 4L * entries;
+			entryChildren = map(channel, offset, 4L * entries).asIntBuffer();
+			offset += 4L * entries;
+			probabilityCodes = map(channel, offset, (long) bits / 8 * entries);
+			offset += (long) bits / 8 * entries;
+
+			IntBuffer wordOffsets = map(channel, offset, 4L * (wordCount + 1)).asIntBuffer();
+			offset += 4L * (wordCount + 1);
+			ByteBuffer wordData = map(channel, offset, wordBytes);
+			byte[] bytes = new byte[wordBytes];
+			wordData.get(bytes);
+			words = new String[wordCount];
+			indices = new HashMap<String, Integer>(2 * wordCount);
+			for (int w = 0; w < wordCount; w++) {
+				int from = wordOffsets.get(w);
+				words[w] = new String(bytes, from, wordOffsets.get(w + 1) - from, Utf8.UTF8);
+				indices.put(words[w], w);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Maps a section of the file. Every section has to be smaller than 2 GB.
+	 *
+	 */
+	private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		if ((size > Integer.MAX_VALUE) || (offset + size > channel.size())) {
+			throw new IOException("Corrupted binary language model!");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public int size() {
+		return words.length;
+	}
+
+	public String getWord(int index) {
+		return words[index];
+	}
+
+	public int getIndex(String word) {
+		Integer index = indices.get(word);
+		return (index == null) ? UNKNOWN : index;
+	}
+
+	public double getProbability(int word, int[] history, int length) {
+		int code = getCode(probabilityCodes, word);
+		if (code == NONE) {
+			return Double.NaN;
+		}
+		double probability = getProbabilityValue(code, 0);
+		double backoff = 0;
+		int node = 0;
+		int depth = 0;
+		for (int i = length - 1; i >= Math.max(0, length - order + 1); i--) {
+			if (history[i] == UNKNOWN) {
+				break;
+			}
+			int entry = (node == 0) ? history[i] : find(node, history[i]);
+			if (entry < 0) {
+				break;
+			}
+			node = entryChildren.get(entry);
+			if (node < 0) {
+				break;
+			}
+			depth++;
+			entry = find(node, word);
+			code = (entry < 0) ? NONE : getCode(probabilityCodes, entry);
+			if (code == NONE) {
+				backoff += backoffValues[(depth - 1) * codes + getCode(backoffCodes, node)];
+			} else {
+				probability = getProbabilityValue(code, depth);
+				backoff = 0;
+			}
+		}
+		return probability + backoff;
+	}
+
+	private double getProbabilityValue(int code, int depth) {
+		return (code == ZERO) ? Double.NEGATIVE_INFINITY : probabilityValues[depth * codes + code];
+	}
+
+	private int getCode(ByteBuffer codes, int index) {
+		return (bits == 8) ? codes.get(index) & 0xff : codes.getShort(2 * index) & 0xffff;
+	}
+
+	/** Finds the entry of a word among the entries of a node by binary search.
+	 *
+	 * @param node History node
+	 * @param word Word index
+	 * @return Entry number, -1 if the node has no entry for the word.
+	 */
+	private int find(int node, int word) {
+		int low = nodeOffsets.get(node);
+		int high = nodeOffsets.get(node + 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int value = entryWords.get(middle);
+			if (value < word) {
+				low = middle + 1;
+			} else if (value > word) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+}
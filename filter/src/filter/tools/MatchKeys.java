@@ -0,0 +1,78 @@
+package filter.tools;
+
+/** Computation of the match keys of translations.
+ *
+ * @see TranslationIndex
+ * @author Adam Liska
+ *
+ */
+public class MatchKeys {
+
+	/** Returns the part of a translation looked for in the second language sentence:
+	 * the translation without the reflexive si/se and anything after it, at most 4 characters long.
+	 *
+	 * @param translation Translation
+	 * @return Match key
+	 */
+	public static String getMatchKey(String translation) {
+		if (translation.contains(" si")) {
+			translation = translation.substring(0, translation.indexOf(" si"));
+		} else if (translation.contains(" se")) {
+			translation = translation.substring(0, translation.indexOf(" se"));
+		}
+
+		if (translation.length() > TranslationIndex.MAX_LENGTH) {
+			translation = translation.substring(0, TranslationIndex.MAX_LENGTH);
+		}
+		return translation;
+	}
+
+	/** Packs characters of a text 16 bits per character.
+	 *
+	 * @param text Text
+	 * @param from Index of the first character
+	 * @param length Number of characters, at most 4.
+	 * @return Packed characters
+	 */
+	public static long pack(CharSequence text, int from, int length) {
+		long packed = 0;
+		for (int i = from; i < from + length; i++) {
+			packed = (packed << 16) | text.charAt(i);
+		}
+		return packed;
+	}
+
+	/** Checks whether a text contains a packed match key, by comparing it with every position of the text.
+	 *
+	 * @param text Text
+	 * @param key Packed match key
+	 * @param length Length of the match key
+	 * @return True if the text contains the key.
+	 */
+	public static boolean occursIn(CharSequence text, long key, int length) {
+		if (length == 0) {
+			return true;
+		}
+		long mask = (length == TranslationIndex.MAX_LENGTH) ? -1L : (1L << (16 * length)) - 1;
+		long window = 0;
+		int textLength = text.length();
+		for (int i = 0; i < textLength; i++) {
+			window = (window << 16) | text.charAt(i);
+			if ((i + 1 >= length) && ((window & mask) == key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Looks for the match key of a word without translations.
+	 *
+	 * @param word Word
+	 * @param target Target language sentence
+	 * @return True if the target sentence contains the key.
+	 */
+	public static boolean isCovered(String word, TranslationIndex.Target target) {
+		String key = getMatchKey(word);
+		return target.contains(pack(key, 0, key.length()), key.length());
+	}
+}
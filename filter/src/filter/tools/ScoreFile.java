@@ -0,0 +1,87 @@
+package filter.tools;
+
+import java.io.*;
+
+/** Score file of a filter, the scores of the sentence pairs as a column of floats indexed by the line number.
+ * Thresholds are then applied to it by filtrum.Thresholds without running the filter again.
+ *
+ * The file starts with a header: magic and version (ints), number of lines and the checksum of the corpus (longs,
+ * see VerdictFile.hash), the threshold of the filter (double), the filter name and the error sign of the filter
+ * (modified UTF-8, as DataOutput.writeUTF writes them), padded with zeros to a multiple of 4 bytes.
+ * The scores follow as big-endian floats, NaN for pairs correct with any threshold.
+ *
+ * @author Adam Liska
+ *
+ */
+public class ScoreFile {
+
+	public static final int MAGIC = 0x53534346;
+	public static final int VERSION = 1;
+
+	/** Writes the scores of a filter line by line.
+	 *
+	 */
+	public static class Writer {
+		String file;
+		DataOutputStream out;
+		long lines;
+		double threshold;
+
+		/** Creates a score file.
+		 *
+		 * @param file Score file path
+		 * @param name Filter name
+		 * @param errorSign Error sign of the filter
+		 * @param threshold Threshold of the filter
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public Writer(String file, String name, String errorSign, double threshold) throws IOException {
+			this.file = file;
+			this.threshold = threshold;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			// filled in by close
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeDouble(threshold);
+			out.writeUTF(name);
+			out.writeUTF(errorSign);
+			while ((out.size() & 3) != 0) {
+				out.writeByte(0);
+			}
+		}
+
+		/** Adds the score of the next line. The score is rounded to a float on the same side of the threshold,
+		 * so that the threshold of the filter gives the same verdicts as the filter.
+		 *
+		 * @param score Score
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public void add(double score) throws IOException {
+			float value = (float) score;
+			if ((score < threshold) != (value < threshold)) {
+				value = Math.nextAfter(value, score);
+			}
+			out.writeFloat(value);
+			lines++;
+		}
+
+		/** Writes the header.
+		 *
+		 * @param checksum Checksum of the corpus, see VerdictFile.hash.
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public void close(long checksum) throws IOException {
+			out.close();
+			RandomAccessFile header = new RandomAccessFile(file, "rw");
+			try {
+				header.seek(8);
+				header.writeLong(lines);
+				header.writeLong(checksum);
+			} finally {
+				header.close();
+			}
+		}
+	}
+}
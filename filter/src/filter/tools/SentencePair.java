@@ -0,0 +1,256 @@
+package filter.tools;
+
+import java.util.Arrays;
+
+/** Sentence pair read from a corpus. 
+ * 
+ * Pairs read from Export Format files are parsed only once, when the sentences of any export mode 
+ * are first requested: the positions of all words and their factors are stored and the sentences of each 
+ * export mode are built from them when they are first requested. 
+ * Pairs read from already extracted files (firstLang_segment \t secondLang_segment) 
+ * return the same sentences for every mode. 
+ * Pairs read from UTF-8 encoded Export Format bytes are decoded only when the sentences are first requested, 
+ * simple checks of the first language sentence can be answered from the bytes directly. 
+ * 
+ * @author Adam Liska
+ *
+ */
+public class SentencePair {
+	
+	/** Number of positions stored for every word: start, three factor separators and end. */
+	static final int WORD = 5;
+	
+	String line;
+	int[] bounds;
+	byte[] bytes;
+	/** Line start and end, then start and end of both sentences, as byte offsets. */
+	int[] byteBounds;
+	int[] words;
+	int sourceWords;
+	int targetWords;
+	String[][] sentences;
+	
+	private SentencePair(String line, int[] bounds) {
+		this.line = line;
+		this.bounds = bounds;
+		sentences = new String[ExportMode.values().length][];
+	}
+	
+	/** Parses a line of Export Format file.
+	 * 
+	 * @param line Export Format line
+	 * @return Sentence pair
+	 */
+	public static SentencePair fromExportFormat(String line) {
+		int[] bounds = new int[4];
+		ExportFormatProcessor.findSentences(line, bounds);
+		return new SentencePair(line, bounds);
+	}
+	
+	/** Parses a UTF-8 encoded line of Export Format file. The line is decoded when the sentences are first requested.
+	 * 
+	 * @param bytes Bytes containing the line
+	 * @param from Line start
+	 * @param to Line end
+	 * @return Sentence pair
+	 */
+	public static SentencePair fromExportFormat(byte[] bytes, int from, int to) {
+		SentencePair pair = new SentencePair(null, new int[4]);
+		pair.bytes = bytes;
+		pair.byteBounds = new int[] {from, to, 0, 0, 0, 0};
+		int[] sentences = new int[4];
+		ExportFormatProcessor.findSentences(bytes, from, to, sentences);
+		System.arraycopy(sentences, 0, pair.byteBounds, 2, 4);
+		return pair;
+	}
+	
+	/** Parses an already extracted sentence pair.
+	 * 
+	 * @param line Sentence pair: firstLang_segment \t secondLang_segment, possibly followed by other fields.
+	 * @return Sentence pair
+	 */
+	public static SentencePair fromPlain(String line) {
+		return new SentencePair(line, null);
+	}
+	
+	/** Returns the first language sentence.
+	 * 
+	 * @param mode Export mode
+	 * @return First language sentence
+	 */
+	public String getSource(ExportMode mode) {
+		return getSentences(mode)[0];
+	}
+	
+	/** Returns the second language sentence.
+	 * 
+	 * @param mode Export mode
+	 * @return Second language sentence
+	 */
+	public String getTarget(ExportMode mode) {
+		return getSentences(mode)[1];
+	}
+	
+	/** Returns the sentence pair as a line. Pairs read from already extracted files are returned unchanged.
+	 * 
+	 * @param mode Export mode
+	 * @return Sentence pair: firstLang_segment \t secondLang_segment
+	 */
+	public String getPair(ExportMode mode) {
+		if (bounds == null) {
+			return line;
+		}
+		String[] pair = getSentences(mode);
+		return pair[0] + "\t" + pair[1];
+	}
+	
+	/** Checks whether the first language sentence (PLAIN mode) contains only ASCII characters.
+	 * 
+	 * @return True if there are only ASCII characters.
+	 */
+	public boolean isSourceAscii() {
+		// all factors of the words are checked, so only a negative answer needs the sentence
+		if ((bytes != null) && Utf8.isAscii(bytes, byteBounds[2], byteBounds[3])) {
+			return true;
+		}
+		return Utf8.isAscii(getSource(ExportMode.PLAIN));
+	}
+	
+	/** Checks whether the first language sentence (PLAIN mode) contains digits 0-9.
+	 * 
+	 * @return True if there is a digit.
+	 */
+	public boolean hasSourceDigits() {
+		// all factors of the words are checked, so only a positive answer needs the sentence
+		if ((bytes != null) && (Utf8.digitMask(bytes, byteBounds[2], byteBounds[3]) == 0)) {
+			return false;
+		}
+		return Utf8.digitMask(getSource(ExportMode.PLAIN)) != 0;
+	}
+	
+	private String[] getSentences(ExportMode mode) {
+		String[] pair = sentences[mode.ordinal()];
+		if (pair == null) {
+			if (bounds == null) {
+				String[] parts = line.split("\\t", -1);
+				pair = new String[] {parts[0], parts[1]};
+				Arrays.fill(sentences, pair);
+			} else {
+				if (line == null) {
+					decode();
+				}
+				if (words == null) {
+					parse();
+				}
+				pair = new String[] {project(0, sourceWords, mode), project(sourceWords, sourceWords + targetWords, mode)};
+				sentences[mode.ordinal()] = pair;
+			}
+		}
+		return pair;
+	}
+	
+	/** Decodes the line from the bytes and finds the sentences in it.
+	 * 
+	 */
+	private void decode() {
+		line = new String(bytes, byteBounds[0], byteBounds[1] - byteBounds[0], Utf8.UTF8);
+		ExportFormatProcessor.findSentences(line, bounds);
+		bytes = null;
+	}
+	
+	/** Stores the positions of the words of both sentences and of their factors.
+	 * 
+	 */
+	private void parse() {
+		words = new int[WORD * 16];
+		sourceWords = parse(bounds[0], bounds[1], 0);
+		targetWords = parse(bounds[2], bounds[3], sourceWords);
+	}
+	
+	/** Stores the positions of the words of a sentence and of their factors. Missing factor separators are stored as -1.
+	 * 
+	 * @param from Sentence start
+	 * @param to Sentence end
+	 * @param index Index of the first word
+	 * @return Number of words in the sentence
+	 */
+	private int parse(int from, int to, int index) {
+		// trailing empty words are dropped, as String.split does
+		if ((to > from) && (line.charAt(to - 1) == ' ')) {
+			while ((to > from) && (line.charAt(to - 1) == ' ')) {
+				to--;
+			}
+			if (to == from) {
+				return 0;
+			}
+		}
+		
+		int count = 0;
+		int start = from;
+		int bars = 0;
+		for (int i = from; i <= to; i++) {
+			char c = (i == to) ? ' ' : line.charAt(i);
+			if ((i == start) && (WORD * (index + count + 1) > words.length)) {
+				words = Arrays.copyOf(words, 2 * words.length);
+			}
+			if (c == ' ') {
+				int word = WORD * (index + count);
+				words[word] = start;
+				for (int b = bars; b < 3; b++) {
+					words[word + 1 + b] = -1;
+				}
+				words[word + 4] = i;
+				count++;
+				start = i + 1;
+				bars = 0;
+			} else if ((c == '|') && (bars < 3)) {
+				words[WORD * (index + count) + 1 + bars] = i;
+				bars++;
+			}
+		}
+		return count;
+	}
+	
+	/** Builds a sentence in the given export mode from the stored word positions.
+	 * 
+	 * @param first Index of the first word of the sentence
+	 * @param last Index after the last word of the sentence
+	 * @param mode Export mode
+	 * @return Sentence
+	 */
+	private String project(int first, int last, ExportMode mode) {
+		int factor = 0;
+		if (mode == ExportMode.LEMMA) {
+			factor = 1;
+		} else if (mode == ExportMode.TAG) {
+			factor = 2;
+		}
+		
+		StringBuilder result = new StringBuilder(line.length() / 4);
+		for (int w = first; w < last; w++) {
+			int word = WORD * w;
+			int end = words[word + 4];
+			int factorStart = (factor == 0) ? words[word] : words[word + factor];
+			if (factorStart < 0) {
+				throw new IllegalArgumentException("Word has no factor " + factor + ": " + line.substring(words[word], end));
+			}
+			if (factor > 0) {
+				factorStart++;
+			}
+			int factorEnd = words[word + factor + 1];
+			if (factorEnd < 0) {
+				factorEnd = end;
+			}
+			
+			if (w > first) {
+				result.append(' ');
+			}
+			if (mode == ExportMode.PSEUDOLEMMA) {
+				ExportFormatProcessor.appendPseudolemma(line, factorStart, factorEnd, result);
+			} else {
+				result.append(line, factorStart, factorEnd);
+			}
+		}
+		return result.toString();
+	}
+}
@@ -1,37 +1,173 @@
 package filter.tools;
 
 import java.io.*;
+import java.util.Arrays;
 
-/** Separation of characters for SRILM toolkit.
- * 
+/** Separation of characters for SRILM toolkit. Every character of a sentence is followed by a space
+ * and every word by a SpAcE token, the words are lowercased and &amp;pipe words are dropped (see CharacterScorer.separate).
+ * The output is produced as a UTF-8 byte stream while the sentences are read, so it can be written
+ * into a named pipe read by SRILM Toolkit, or passed to a process in the same JVM, instead of being stored in a file
+ * several times larger than the corpus. Tools in the JVM which need the tokens themselves use CharacterScorer.separate.
+ *
  * @author Adam Liska
  *
  */
 public class SeparateChars {
-	public static void main(String[] args) {
-		try {
-			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+	static final byte[] SPACE = CharacterScorer.SPACE.getBytes(Utf8.UTF8);
+
+	/** UTF-8 encoded SeparateChars output of the sentences of a reader, one sentence per line.
+	 * The sentences are read and separated as the bytes are requested.
+	 *
+	 */
+	public static class SeparatedStream extends InputStream {
+		BufferedReader in;
+		CharacterScorer.CodePoints codePoints = new CharacterScorer.CodePoints();
+		byte[] buffer = new byte[1 << 16];
+		int position;
+		int limit;
+		boolean eof;
+
+		/** Initialises the stream.
+		 *
+		 * @param in Sentences, one per line, words separated by spaces.
+		 */
+		public SeparatedStream(BufferedReader in) {
+			this.in = in;
+		}
+
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return buffer[position++] & 0xff;
+		}
+
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int count = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, bytes, offset, count);
+			position += count;
+			return count;
+		}
+
+		public int available() {
+			return limit - position;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/** Separates sentences into the buffer once all of it has been read.
+		 *
+		 * @return False at the end of the input.
+		 */
+		private boolean fill() throws IOException {
+			if (position < limit) {
+				return true;
+			}
+			position = 0;
+			limit = 0;
 			String line;
-			while((line = in.readLine()) != null) {
-				String[] words = line.split(" ");
-				StringBuilder result = new StringBuilder();
-				for(String word:words) {
-					if (!word.equals("&pipe")) {
-						char[] chars = word.toLowerCase().toCharArray();
-						for(int i = 0; i < chars.length; i++) {
-							if (chars[i] == ' ') {
-								result.append("SpAcE");
-							} else {
-								result.append(chars[i]);	
-							}
-							result.append(" ");
-						}
-						result.append("SpAcE ");
-					}
+			while (!eof && (limit < buffer.length / 2)) {
+				if ((line = in.readLine()) == null) {
+					eof = true;
+					break;
+				}
+				CharacterScorer.separate(line, codePoints);
+				// at most four bytes of a code point or the SpAcE token, and a space after each token
+				int size = limit + (SPACE.length + 1) * codePoints.length + 1;
+				if (size > buffer.length) {
+					buffer = Arrays.copyOf(buffer, Math.max(size, 2 * buffer.length));
 				}
-				System.out.println(result);
+				for (int i = 0; i < codePoints.length; i++) {
+					limit = encode(codePoints.values[i], buffer, limit);
+					buffer[limit++] = ' ';
+				}
+				buffer[limit++] = '\n';
 			}
+			return limit > 0;
+		}
+	}
+
+	/** Writes a token encoded in UTF-8, unpaired surrogates are written as question marks.
+	 *
+	 * @param codePoint Code point, or CharacterScorer.SPACE_CODE_POINT for SpAcE.
+	 * @param bytes Output buffer
+	 * @param offset Output position
+	 * @return Position after the token.
+	 */
+	static int encode(int codePoint, byte[] bytes, int offset) {
+		if (codePoint == CharacterScorer.SPACE_CODE_POINT) {
+			System.arraycopy(SPACE, 0, bytes, offset, SPACE.length);
+			return offset + SPACE.length;
+		}
+		if (codePoint < 0x80) {
+			bytes[offset++] = (byte) codePoint;
+		} else if (codePoint < 0x800) {
+			bytes[offset++] = (byte) (0xc0 | (codePoint >> 6));
+			bytes[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+		} else if ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE)) {
+			bytes[offset++] = '?';
+		} else if (codePoint < 0x10000) {
+			bytes[offset++] = (byte) (0xe0 | (codePoint >> 12));
+			bytes[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+			bytes[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+		} else {
+			bytes[offset++] = (byte) (0xf0 | (codePoint >> 18));
+			bytes[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+			bytes[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+			bytes[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+		}
+		return offset;
+	}
+
+	/** Writes SeparateChars output of sentences.
+	 *
+	 * @param in Sentences, one per line.
+	 * @param out Output, e.g. a named pipe read by SRILM Toolkit.
+	 * @throws IOException Exception if there is an error reading input or writing output.
+	 */
+	public static void separate(BufferedReader in, OutputStream out) throws IOException {
+		InputStream separated = new SeparatedStream(in);
+		byte[] bytes = new byte[1 << 16];
+		int count;
+		while ((count = separated.read(bytes, 0, bytes.length)) >= 0) {
+			out.write(bytes, 0, count);
+		}
+		out.flush();
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("SeparateChars [-o output] < corpus > output");
+	}
+
+	/** Reads sentences from the standard input and writes SeparateChars output.
+	 *
+	 * @param args Command line arguments: optional -o output file path, which may be a named pipe created by mkfifo
+	 * and read by SRILM Toolkit, e.g. ngram -ppl pipe. The standard output is used by default.
+	 */
+	public static void main(String[] args) {
+		if ((args.length != 0) && ((args.length != 2) || !args[0].equals("-o"))) {
+			printHelp();
+			return;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			OutputStream out = (args.length == 2) ? new FileOutputStream(args[1]) : System.out;
+			separate(in, out);
 			in.close();
+			out.close();
 		} catch (IOException e) {
 			throw new RuntimeException("Error reading input!");
 		}
@@ -0,0 +1,357 @@
+package filter.tools;
+
+import java.io.*;
+
+/** Streaming parser of SRILM Toolkit ngram -ppl -debug 1 output. Every sentence has a record of four lines:
+ * <pre>
+ * sentence
+ * 1 sentences, 17 words, 0 OOVs
+ * 0 zeroprobs, logprob= -48.0471 ppl= 10 ppl1= 11
+ * (empty line)
+ * </pre>
+ * and the records are followed by the summary of the whole file, starting with "file name: ".
+ * The fields are parsed directly in the character buffer, without creating strings.
+ *
+ * @author Adam Liska
+ *
+ */
+public class SrilmParser {
+
+	Reader in;
+	char[] buffer = new char[1 << 16];
+	int position;
+	int limit;
+	boolean eof;
+	/** Start and end of the current line. */
+	int lineStart;
+	int lineEnd;
+	long line;
+
+	long records;
+	boolean summary;
+	int words;
+	int oovs;
+	int zeroProbabilities;
+	double logProbability;
+
+	/** Initialises a parser.
+	 *
+	 * @param in SRILM Toolkit output
+	 */
+	public SrilmParser(Reader in) {
+		this.in = in;
+	}
+
+	/** Reads the next sentence record.
+	 *
+	 * @return True if a record was read, false at the file summary or at the end of the input.
+	 * @throws IOException Exception if there is an error reading input or the record is malformed.
+	 */
+	public boolean next() throws IOException {
+		if (summary || !readLine()) {
+			return false;
+		}
+		if (isSummary()) {
+			summary = true;
+			return false;
+		}
+
+		if (!readLine()) {
+			throw malformed("missing counts");
+		}
+		int field = lineStart;
+		int end = skipField(field);
+		expect(parseInt(field, end) == 1, "1 sentences");
+		field = nextField(end);
+		end = skipField(field);
+		expect(matches(field, end, "sentences,"), "1 sentences");
+		field = nextField(end);
+		end = skipField(field);
+		words = parseInt(field, end);
+		field = nextField(end);
+		end = skipField(field);
+		expect(matches(field, end, "words,"), "words");
+		field = nextField(end);
+		end = skipField(field);
+		oovs = parseInt(field, end);
+		field = nextField(end);
+		end = skipField(field);
+		expect(matches(field, end, "OOVs"), "OOVs");
+
+		if (!readLine()) {
+			throw malformed("missing logprob");
+		}
+		field = lineStart;
+		end = skipField(field);
+		zeroProbabilities = parseInt(field, end);
+		field = nextField(end);
+		end = skipField(field);
+		expect(matches(field, end, "zeroprobs,"), "zeroprobs");
+		field = nextField(end);
+		end = skipField(field);
+		expect(matches(field, end, "logprob="), "logprob");
+		field = nextField(end);
+		end = skipField(field);
+		logProbability = parseDouble(field, end);
+
+		if (readLine() && (lineEnd > lineStart)) {
+			throw malformed("expected an empty line");
+		}
+		records++;
+		return true;
+	}
+
+	/** Returns the number of words (characters for SeparateChars output) of the sentence, including OOVs.
+	 *
+	 * @return Number of words.
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/** Returns the number of words of the sentence not in the vocabulary.
+	 *
+	 * @return Number of OOVs.
+	 */
+	public int getOovs() {
+		return oovs;
+	}
+
+	/** Returns the number of words of the sentence with zero probability.
+	 *
+	 * @return Number of zero probabilities.
+	 */
+	public int getZeroProbabilities() {
+		return zeroProbabilities;
+	}
+
+	/** Returns the log10 probability of the sentence.
+	 *
+	 * @return Log probability.
+	 */
+	public double getLogProbability() {
+		return logProbability;
+	}
+
+	/** Returns the number of records read.
+	 *
+	 * @return Number of records.
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/** Tells whether the records ended with the file summary, not only with the end of the input.
+	 *
+	 * @return True if the summary was reached.
+	 */
+	public boolean hasSummary() {
+		return summary;
+	}
+
+	/** Checks whether the current line is the file summary: file name: N sentences, M words, K OOVs
+	 *
+	 */
+	private boolean isSummary() throws IOException {
+		if (!matches(lineStart, Math.min(lineEnd, lineStart + 5), "file ")) {
+			return false;
+		}
+		for (int i = lineStart + 5; i + 1 < lineEnd; i++) {
+			if ((buffer[i] == ':') && (buffer[i + 1] == ' ')) {
+				int field = nextField(i + 1);
+				int end = skipField(field);
+				if ((end > field) && isDigit(buffer[field])) {
+					field = nextField(end);
+					end = skipField(field);
+					if (matches(field, end, "sentences,") || matches(field, end, "sentences")) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Reads the next line into the buffer.
+	 *
+	 * @return False at the end of the input.
+	 */
+	private boolean readLine() throws IOException {
+		int i = position;
+		while (true) {
+			for (; i < limit; i++) {
+				if (buffer[i] == '\n') {
+					setLine(i);
+					position = i + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (position == limit) {
+					return false;
+				}
+				setLine(limit);
+				position = limit;
+				return true;
+			}
+			// keep the beginning of the line and read more, the buffer grows only if the line fills it
+			int length = limit - position;
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, length);
+			} else if (limit == buffer.length) {
+				char[] grown = new char[2 * buffer.length];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+			i = length;
+			position = 0;
+			limit = length;
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+		}
+	}
+
+	private void setLine(int end) {
+		line++;
+		lineStart = position;
+		lineEnd = ((end > position) && (buffer[end - 1] == '\r')) ? end - 1 : end;
+	}
+
+	/** Returns the start of the field after a position, skipping spaces.
+	 *
+	 */
+	private int nextField(int from) {
+		while ((from < lineEnd) && (buffer[from] == ' ')) {
+			from++;
+		}
+		return from;
+	}
+
+	/** Returns the end of the field starting at a position.
+	 *
+	 */
+	private int skipField(int from) {
+		while ((from < lineEnd) && (buffer[from] != ' ')) {
+			from++;
+		}
+		return from;
+	}
+
+	private boolean matches(int from, int to, String text) {
+		if (to - from != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (buffer[from + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return (c >= '0') && (c <= '9');
+	}
+
+	private void expect(boolean condition, String expected) throws IOException {
+		if (!condition) {
+			throw malformed("expected " + expected);
+		}
+	}
+
+	private int parseInt(int from, int to) throws IOException {
+		if (from == to) {
+			throw malformed("expected a number");
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			if (!isDigit(buffer[i]) || (value > Integer.MAX_VALUE)) {
+				throw malformed("expected a number");
+			}
+			value = 10 * value + (buffer[i] - '0');
+		}
+		if (value > Integer.MAX_VALUE) {
+			throw malformed("expected a number");
+		}
+		return (int) value;
+	}
+
+	/** Parses a decimal number. Numbers of at most 15 significant digits with small exponents are computed exactly
+	 * from their digits, as Double.parseDouble would, other numbers are passed to Double.parseDouble.
+	 *
+	 */
+	private double parseDouble(int from, int to) throws IOException {
+		int i = from;
+		boolean negative = (i < to) && (buffer[i] == '-');
+		if (negative || ((i < to) && (buffer[i] == '+'))) {
+			i++;
+		}
+		if (matches(i, to, "inf") || matches(i, to, "Infinity")) {
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		for (; (i < to) && isDigit(buffer[i]); i++) {
+			any = true;
+			if ((mantissa > 0) || (buffer[i] != '0')) {
+				digits++;
+			}
+			mantissa = 10 * mantissa + (buffer[i] - '0');
+			if (digits > 15) {
+				return parseDoubleSlowly(from, to);
+			}
+		}
+		if ((i < to) && (buffer[i] == '.')) {
+			for (i++; (i < to) && isDigit(buffer[i]); i++) {
+				any = true;
+				if ((mantissa > 0) || (buffer[i] != '0')) {
+					digits++;
+				}
+				mantissa = 10 * mantissa + (buffer[i] - '0');
+				exponent--;
+				if (digits > 15) {
+					return parseDoubleSlowly(from, to);
+				}
+			}
+		}
+		if (!any) {
+			throw malformed("expected a number");
+		}
+		if (i < to) {
+			return parseDoubleSlowly(from, to);
+		}
+		double value = (double) mantissa;
+		if (exponent < -22) {
+			return parseDoubleSlowly(from, to);
+		} else if (exponent < 0) {
+			value /= POWERS_OF_TEN[-exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+		}
+	}
+
+	private double parseDoubleSlowly(int from, int to) throws IOException {
+		try {
+			return Double.parseDouble(new String(buffer, from, to - from));
+		} catch (NumberFormatException e) {
+			throw malformed("expected a number");
+		}
+	}
+
+	private IOException malformed(String message) {
+		return new IOException("Malformed SRILM output at line " + line + " (record " + (records + 1) + "): " + message + "!");
+	}
+}
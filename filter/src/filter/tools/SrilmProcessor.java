@@ -8,31 +8,25 @@ import java.io.*;
  */
 
 public class SrilmProcessor {
+	/** Prints the log probability per character of every sentence of SRILM Toolkit output, 
+	 * 1000 for sentences of at most 35 characters.
+	 * 
+	 * @param srilm SRILM Toolkit output
+	 * @throws IOException Exception if there is an error reading input or a record is malformed.
+	 */
 	public static void processInputStream(BufferedReader srilm) throws IOException {
-		String line;
-		int i = 0;
-		while((line = srilm.readLine()) != null) {
-			i++;
-
-			if (line.startsWith("file")) {
-				break;
-			}
-			
-			line = srilm.readLine();
-
-			Double numchars = new Double(line.split(" ")[2]);
-			line = srilm.readLine();
+		SrilmParser parser = new SrilmParser(srilm);
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		while (parser.next()) {
+			int numchars = parser.getWords();
 			if (numchars > 35) {
-				Double prob = new Double(line.split(" ")[3]);
-				Double result = (prob / numchars);
-				System.out.println(result);
+				out.write(Double.toString(parser.getLogProbability() / numchars));
 			} else {
-				System.out.println("1000");
+				out.write("1000");
 			}
-			
-			srilm.readLine();
-
-		}		
+			out.newLine();
+		}
+		out.flush();
 	}
 	
 	public static void printHelp() {
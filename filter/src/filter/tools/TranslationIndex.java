@@ -0,0 +1,37 @@
+package filter.tools;
+
+/** Match keys of the translations of source language words, as used by the dictionary filter.
+ * A match key is the beginning of a translation looked for in the target language sentence,
+ * at most MAX_LENGTH characters long, packed 16 bits per character into a long.
+ *
+ * @author Adam Liska
+ *
+ */
+public interface TranslationIndex {
+
+	/** Maximum length of a match key. */
+	int MAX_LENGTH = 4;
+
+	/** Target language sentence the match keys are looked for in.
+	 *
+	 */
+	interface Target {
+
+		/** Checks whether the sentence contains a match key.
+		 *
+		 * @param key Packed match key
+		 * @param length Length of the match key
+		 * @return True if the sentence contains the key.
+		 */
+		boolean contains(long key, int length);
+	}
+
+	/** Checks whether the target sentence contains a match key of any translation of a word.
+	 * Words without translations are looked for themselves.
+	 *
+	 * @param word Source language word
+	 * @param target Target language sentence
+	 * @return True if the word is covered in the target sentence.
+	 */
+	boolean isCovered(String word, Target target);
+}
@@ -0,0 +1,105 @@
+package filter.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/** Checks working directly on UTF-8 encoded text, so that the text doesn't have to be decoded.
+ * All bytes of multi-byte UTF-8 sequences have the high bit set, so ASCII characters and digits
+ * can be recognised byte by byte. Eight bytes are tested at once where possible.
+ *
+ * @author Adam Liska
+ *
+ */
+public class Utf8 {
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final long HIGH_BITS = 0x8080808080808080L;
+
+	/** Checks whether the bytes contain only ASCII characters.
+	 *
+	 * @param bytes UTF-8 encoded text
+	 * @param from Start of the checked part
+	 * @param to End of the checked part
+	 * @return True if there are only ASCII characters.
+	 */
+	public static boolean isAscii(byte[] bytes, int from, int to) {
+		ByteBuffer words = ByteBuffer.wrap(bytes);
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			if ((words.getLong(i) & HIGH_BITS) != 0) {
+				return false;
+			}
+		}
+		for (; i < to; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Checks whether the text contains only ASCII characters.
+	 *
+	 * @param text Text
+	 * @return True if there are only ASCII characters.
+	 */
+	public static boolean isAscii(String text) {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns the digits 0-9 occurring in the bytes.
+	 *
+	 * @param bytes UTF-8 encoded text
+	 * @param from Start of the checked part
+	 * @param to End of the checked part
+	 * @return Bit mask, bit d is set if digit d occurs in the text.
+	 */
+	public static int digitMask(byte[] bytes, int from, int to) {
+		ByteBuffer words = ByteBuffer.wrap(bytes);
+		int mask = 0;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			// skips words without bytes 0x30-0x3f, i.e. without digits
+			long word = words.getLong(i) ^ 0x3030303030303030L;
+			if ((((word & 0xf0f0f0f0f0f0f0f0L) - 0x0101010101010101L) & ~word & HIGH_BITS) == 0) {
+				continue;
+			}
+			for (int j = i; j < i + 8; j++) {
+				mask |= digitBit(bytes[j]);
+			}
+		}
+		for (; i < to; i++) {
+			mask |= digitBit(bytes[i]);
+		}
+		return mask;
+	}
+
+	/** Returns the digits 0-9 occurring in the text.
+	 *
+	 * @param text Text
+	 * @return Bit mask, bit d is set if digit d occurs in the text.
+	 */
+	public static int digitMask(String text) {
+		int mask = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if ((c >= '0') && (c <= '9')) {
+				mask |= 1 << (c - '0');
+			}
+		}
+		return mask;
+	}
+
+	private static int digitBit(byte b) {
+		int digit = b - '0';
+		return ((digit >= 0) && (digit <= 9)) ? (1 << digit) : 0;
+	}
+}
@@ -0,0 +1,103 @@
+package filter.tools;
+
+import java.io.*;
+
+/** Verdict file of a filter, written instead of the corpus copy with error signs. It holds one bit per corpus line,
+ * set for incorrect sentence pairs, so that outputs of several filters are combined by bitwise OR (see filtrum.Combine -v).
+ *
+ * The file starts with a header: magic and version (ints), number of lines and the checksum of the corpus (longs),
+ * the filter name and the error sign of the filter (modified UTF-8, as DataOutput.writeUTF writes them).
+ * The bits follow as longs, line i is bit i % 64 of long i / 64. The checksum is the 64-bit FNV-1a hash
+ * of the plain sentence pairs (firstLang_segment \t secondLang_segment \n), so it doesn't depend on whether the filter
+ * read Export Format or an already extracted corpus.
+ *
+ * @author Adam Liska
+ *
+ */
+public class VerdictFile {
+
+	public static final int MAGIC = 0x53564446;
+	public static final int VERSION = 1;
+	/** Checksum of an empty corpus. */
+	public static final long EMPTY_CHECKSUM = 0xcbf29ce484222325L;
+	static final long PRIME = 0x100000001b3L;
+
+	/** Adds a sentence pair to the checksum of a corpus.
+	 *
+	 * @param checksum Checksum of the previous sentence pairs.
+	 * @param pair Plain sentence pair: firstLang_segment \t secondLang_segment
+	 * @return Checksum including the pair.
+	 */
+	public static long hash(long checksum, String pair) {
+		int length = pair.length();
+		for (int i = 0; i < length; i++) {
+			checksum = (checksum ^ pair.charAt(i)) * PRIME;
+		}
+		return (checksum ^ '\n') * PRIME;
+	}
+
+	/** Writes the verdicts of a filter line by line.
+	 *
+	 */
+	public static class Writer {
+		String file;
+		DataOutputStream out;
+		long lines;
+		long bits;
+
+		/** Creates a verdict file.
+		 *
+		 * @param file Verdict file path
+		 * @param name Filter name
+		 * @param errorSign Error sign of the filter
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public Writer(String file, String name, String errorSign) throws IOException {
+			this.file = file;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			// filled in by close
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeUTF(name);
+			out.writeUTF(errorSign);
+		}
+
+		/** Adds the verdict of the next line.
+		 *
+		 * @param incorrect True for an incorrect sentence pair.
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public void add(boolean incorrect) throws IOException {
+			if (incorrect) {
+				bits |= 1L << lines;
+			}
+			lines++;
+			if ((lines & 63) == 0) {
+				out.writeLong(bits);
+				bits = 0;
+			}
+		}
+
+		/** Writes the remaining bits and the header.
+		 *
+		 * @param checksum Checksum of the corpus, see hash.
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public void close(long checksum) throws IOException {
+			if ((lines & 63) != 0) {
+				out.writeLong(bits);
+			}
+			out.close();
+			RandomAccessFile header = new RandomAccessFile(file, "rw");
+			try {
+				header.seek(8);
+				header.writeLong(lines);
+				header.writeLong(checksum);
+			} finally {
+				header.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package filter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.*;
+
+import filter.tools.ExportMode;
+import filter.tools.SentencePair;
+import filter.tools.Utf8;
+
+/** Differential test of the UTF-8 byte checks of ASCIIFilter and NumberFilter against the regular expression
+ * checks they replaced, run as: java filter.Utf8FastPathTest [number_of_pairs]
+ *
+ * Both the byte checks of Utf8 on their own and the whole filters on Export Format pairs read from bytes
+ * and from strings are compared with the old implementations on the same inputs.
+ *
+ * @author Adam Liska
+ *
+ */
+public class Utf8FastPathTest {
+
+	/** Characters the sentences are made of: ASCII, digits, Czech, Cyrillic and Chinese letters,
+	 * allowed characters of ASCIIFilter and a character outside the Basic Multilingual Plane. */
+	static final String[] ALPHABET = {"a", "b", "K", ".", "0", "1", "2", "3", "7", "9", "é", "ř", "Ž", "ж", "Д", "中", "文",
+		"“", "”", "€", "—", "‑", "\uD83D\uDE00"};
+
+	static final Pattern ASCII_REFERENCE = Pattern.compile("[^\\p{ASCII}“”´´``—–€‐‘‑‑]");
+	static final Pattern NUMBER_REFERENCE = Pattern.compile("\\d+");
+
+	static Random random = new Random(7);
+	static int checks;
+
+	static void check(boolean condition, String message) {
+		checks++;
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/** The ASCII check of ASCIIFilter before the byte checks.
+	 *
+	 */
+	static boolean referenceAscii(String eng, String cs) {
+		if (eng.matches("[\\p{ASCII}]*")) {
+			return true;
+		}
+		Matcher m = ASCII_REFERENCE.matcher(eng);
+		while (m.find()) {
+			if (!cs.contains(m.group())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The number check of NumberFilter before the byte checks.
+	 *
+	 */
+	static boolean referenceNumber(Map<String, String[]> numberMap, String eng, String cz) {
+		eng = eng.toLowerCase();
+		cz = cz.toLowerCase();
+		int missing = 0;
+		Matcher m = NUMBER_REFERENCE.matcher(eng);
+		while (m.find()) {
+			String number = m.group();
+			if (cz.contains(number)) {
+				continue;
+			}
+			boolean containsTrans = false;
+			if (numberMap.containsKey(number)) {
+				for (String translation:numberMap.get(number)) {
+					if (cz.contains(translation)) {
+						containsTrans = true;
+						break;
+					}
+				}
+			}
+			if (!containsTrans) {
+				missing++;
+			}
+		}
+		if (missing == 0) {
+			return true;
+		}
+		for (Integer i = 0; i < 10; i++) {
+			if (cz.contains(i.toString()) != eng.contains(i.toString())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static String randomWord(int maxLength) {
+		StringBuilder word = new StringBuilder();
+		int length = 1 + random.nextInt(maxLength);
+		// mostly ASCII words, so that the byte checks accept many pairs
+		boolean ascii = random.nextInt(3) > 0;
+		for (int i = 0; i < length; i++) {
+			word.append(ALPHABET[random.nextInt(ascii ? 4 : ALPHABET.length)]);
+		}
+		return word.toString();
+	}
+
+	/** Creates an Export Format sentence: form|lemma|tag words. The lemmas differ from the forms at times,
+	 * so that non-ASCII characters and digits occur in other factors than the checked one.
+	 *
+	 */
+	static String randomSentence(List<String> forms) {
+		StringBuilder sentence = new StringBuilder();
+		for (int w = 0; w < forms.size(); w++) {
+			String form = forms.get(w);
+			String lemma = (random.nextInt(4) == 0) ? randomWord(4) : form;
+			if (w > 0) {
+				sentence.append(' ');
+			}
+			sentence.append(form + "|" + lemma + "|NN");
+		}
+		return sentence.toString();
+	}
+
+	/** Creates an Export Format line; the second sentence shares words with the first one at times.
+	 *
+	 */
+	static String randomLine(int id) {
+		ArrayList<String> source = new ArrayList<String>();
+		ArrayList<String> target = new ArrayList<String>();
+		int words = random.nextInt(8);
+		for (int w = 0; w < words; w++) {
+			String word = randomWord(12);
+			source.add(word);
+			if (random.nextInt(3) > 0) {
+				target.add(word);
+			}
+		}
+		if (random.nextBoolean()) {
+			target.add(randomWord(6));
+		}
+		Collections.shuffle(target, random);
+		return "id-" + id + "\t" + randomSentence(source) + "\tx\ty\tz\t" + randomSentence(target) + "\tq";
+	}
+
+	/** Compares the byte checks of Utf8 with the old checks for a single non-ASCII character or digit
+	 * at every position of texts around the 8 byte boundaries, starting at every offset of a word.
+	 *
+	 */
+	static void testBoundaries() {
+		String[] specials = {"é", "中", "\uD83D\uDE00", "0", "5", "9", "/", ":", "@", "\u0130"};
+		for (String special:specials) {
+			for (int length = 0; length <= 25; length++) {
+				for (int position = 0; position <= length; position++) {
+					StringBuilder text = new StringBuilder();
+					for (int i = 0; i < length; i++) {
+						text.append((i == position) ? special : "x");
+					}
+					String plain = text.toString();
+					byte[] encoded = plain.getBytes(Utf8.UTF8);
+					for (int offset = 0; offset < 8; offset++) {
+						byte[] bytes = new byte[offset + encoded.length + 8];
+						// the surroundings aren't checked
+						Arrays.fill(bytes, (byte) '7');
+						bytes[offset + encoded.length] = (byte) 0xc3;
+						System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+						compareBytes(plain, bytes, offset, offset + encoded.length);
+					}
+				}
+			}
+		}
+	}
+
+	/** Compares the byte checks of Utf8 with the old checks on random texts.
+	 *
+	 */
+	static void testRandomTexts(int count) {
+		for (int t = 0; t < count; t++) {
+			String plain = randomWord(40);
+			byte[] encoded = plain.getBytes(Utf8.UTF8);
+			int offset = random.nextInt(9);
+			byte[] bytes = new byte[offset + encoded.length + random.nextInt(9)];
+			System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+			compareBytes(plain, bytes, offset, offset + encoded.length);
+		}
+	}
+
+	static void compareBytes(String plain, byte[] bytes, int from, int to) {
+		check(Utf8.isAscii(bytes, from, to) == plain.matches("[\\p{ASCII}]*"), "isAscii differs: " + plain);
+		check(Utf8.isAscii(plain) == plain.matches("[\\p{ASCII}]*"), "isAscii differs: " + plain);
+		int mask = 0;
+		for (Integer i = 0; i < 10; i++) {
+			if (plain.contains(i.toString())) {
+				mask |= 1 << i;
+			}
+		}
+		check(Utf8.digitMask(bytes, from, to) == mask, "digitMask differs: " + plain);
+		check(Utf8.digitMask(plain) == mask, "digitMask differs: " + plain);
+	}
+
+	/** Compares the verdicts of the filters on pairs read from bytes and from strings with the old checks.
+	 *
+	 */
+	static void testFilters(int count) throws IOException {
+		ASCIIFilter ascii = new ASCIIFilter();
+		NumberFilter number = new NumberFilter();
+		number.numberMap.put("3", new String[] {"three", "tři"});
+		number.numberMap.put("7", new String[] {"sedm", ""});
+		number.numberMap.put("2010", new String[] {"two thousand ten", "dva tisíce deset"});
+		number.compileMap();
+
+		int batch = 100;
+		int[] incorrect = new int[2];
+		int fastAscii = 0;
+		int fastNumber = 0;
+		for (int b = 0; b < count; b += batch) {
+			String[] lines = new String[batch];
+			SentencePair[] fromBytes = new SentencePair[batch];
+			SentencePair[] fromStrings = new SentencePair[batch];
+			SentencePair[] fromPlain = new SentencePair[batch];
+			for (int i = 0; i < batch; i++) {
+				lines[i] = randomLine(b + i);
+				byte[] encoded = lines[i].getBytes(Utf8.UTF8);
+				int offset = random.nextInt(9);
+				byte[] bytes = new byte[offset + encoded.length + 1];
+				System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+				bytes[bytes.length - 1] = '\n';
+				fromBytes[i] = SentencePair.fromExportFormat(bytes, offset, offset + encoded.length);
+				fromStrings[i] = SentencePair.fromExportFormat(lines[i]);
+				fromPlain[i] = SentencePair.fromPlain(fromStrings[i].getPair(ExportMode.PLAIN));
+				if (fromBytes[i].isSourceAscii()) {
+					fastAscii++;
+				}
+				if (!fromBytes[i].hasSourceDigits()) {
+					fastNumber++;
+				}
+			}
+
+			Filter[] filters = {ascii, number};
+			for (int f = 0; f < filters.length; f++) {
+				boolean[][] results = new boolean[3][batch];
+				filters[f].checkAlignment(fromBytes, batch, results[0]);
+				filters[f].checkAlignment(fromStrings, batch, results[1]);
+				filters[f].checkAlignment(fromPlain, batch, results[2]);
+				for (int i = 0; i < batch; i++) {
+					String eng = fromStrings[i].getSource(ExportMode.PLAIN);
+					String cz = fromStrings[i].getTarget(ExportMode.PLAIN);
+					boolean expected = (f == 0) ? referenceAscii(eng, cz) : referenceNumber(number.numberMap, eng, cz);
+					for (int r = 0; r < results.length; r++) {
+						check(results[r][i] == expected, filters[f].getName() + " verdict differs: " + lines[i]);
+					}
+					if (!expected) {
+						incorrect[f]++;
+					}
+				}
+			}
+		}
+		// both verdicts and both paths have to be exercised
+		check((incorrect[0] > count / 20) && (incorrect[0] < count - count / 20), "too few ASCII verdicts of a kind");
+		check((incorrect[1] > count / 50) && (incorrect[1] < count - count / 20), "too few number verdicts of a kind");
+		check((fastAscii > count / 10) && (fastAscii < count - count / 10), "too few pairs of a kind for isSourceAscii");
+		check((fastNumber > count / 10) && (fastNumber < count - count / 10), "too few pairs of a kind for hasSourceDigits");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		testBoundaries();
+		testRandomTexts(count);
+		testFilters(count);
+		System.out.println("Utf8FastPathTest OK (" + checks + " checks)");
+	}
+}
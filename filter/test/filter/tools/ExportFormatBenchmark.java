@@ -0,0 +1,189 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+
+/** Benchmark of the single-scan Export Format extraction against the split based one it replaced,
+ * run as: java filter.tools.ExportFormatBenchmark [-n number_of_lines] [-p passes] [export_format_file]
+ *
+ * Generated lines are used unless a file is given. Before timing, the output of both extractors
+ * is compared line by line for every export mode; lines either extractor rejects have to be rejected by both.
+ *
+ * @author Adam Liska
+ *
+ */
+public class ExportFormatBenchmark {
+
+	static final String[] FORMS = {"The", "cat", "on", "mats", ".", "2010", "Zürich", "café", "Kočka", "ŘEKA", "Žluťoučký",
+		"“", "€", "ABCDEFG", "in", "x", "\uD83D\uDE00"};
+
+	/** Sentences of the pair as the split based version found them.
+	 *
+	 */
+	static String[] referenceSentences(String line) {
+		String[] input = line.split("\\t");
+		return new String[] {input[1], input[5]};
+	}
+
+	/** The split based extraction.
+	 *
+	 */
+	static String referenceExtract(String line, ExportMode mode) {
+		String[] columns = line.split(" ");
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			String word;
+			if (mode == ExportMode.PSEUDOLEMMA) {
+				word = columns[i].split("\\|")[0].toLowerCase();
+				if (word.length() > 5) {
+					word = word.substring(0, 5);
+				}
+			} else {
+				word = columns[i].split("\\|")[mode.ordinal()];
+			}
+			result.append(word);
+			if (i < columns.length - 1) {
+				result.append(" ");
+			}
+		}
+		return result.toString();
+	}
+
+	static String reference(String line, ExportMode mode) {
+		String[] sentences = referenceSentences(line);
+		return referenceExtract(sentences[0], mode) + "\t" + referenceExtract(sentences[1], mode);
+	}
+
+	/** The single-scan extraction, as ExportFormatProcessor processes a line.
+	 *
+	 */
+	static String scan(String line, ExportMode mode, int[] bounds, StringBuilder buffer) {
+		ExportFormatProcessor.findSentences(line, bounds);
+		buffer.setLength(0);
+		ExportFormatProcessor.extract(line, bounds[0], bounds[1], mode, buffer);
+		buffer.append('\t');
+		ExportFormatProcessor.extract(line, bounds[2], bounds[3], mode, buffer);
+		return buffer.toString();
+	}
+
+	static String randomSentence(Random random) {
+		int words = random.nextInt(30);
+		StringBuilder sentence = new StringBuilder();
+		for (int w = 0; w < words; w++) {
+			String form = FORMS[random.nextInt(FORMS.length)];
+			if (w > 0) {
+				sentence.append(' ');
+			}
+			sentence.append(form + "|" + form.toLowerCase() + "|NN" + random.nextInt(10) + "-----A----");
+		}
+		// trailing spaces and space-only sentences
+		if (random.nextInt(20) == 0) {
+			sentence.append("  ");
+		}
+		return sentence.toString();
+	}
+
+	static ArrayList<String> generate(int count) {
+		Random random = new Random(3);
+		ArrayList<String> lines = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			lines.add("id-" + i + "\t" + randomSentence(random) + "\tx\ty\tz\t" + randomSentence(random) + "\tq");
+		}
+		return lines;
+	}
+
+	/** Compares the output of both extractors.
+	 *
+	 * @return Lines both extractors accepted.
+	 */
+	static List<String> compare(List<String> lines, ExportMode mode) {
+		int[] bounds = new int[4];
+		StringBuilder buffer = new StringBuilder();
+		List<String> accepted = new ArrayList<String>(lines.size());
+		for (String line:lines) {
+			String expected;
+			String actual;
+			try {
+				expected = reference(line, mode);
+			} catch (RuntimeException e) {
+				expected = null;
+			}
+			try {
+				actual = scan(line, mode, bounds, buffer);
+			} catch (RuntimeException e) {
+				actual = null;
+			}
+			if ((expected == null) ? (actual != null) : !expected.equals(actual)) {
+				throw new AssertionError(mode + " output differs on line: " + line + "\nexpected: " + expected + "\nactual: " + actual);
+			}
+			if (expected != null) {
+				accepted.add(line);
+			}
+		}
+		return accepted;
+	}
+
+	/** Times passes over lines both extractors accept, returns the time in milliseconds.
+	 *
+	 */
+	static long time(List<String> lines, ExportMode mode, boolean reference, int passes) {
+		int[] bounds = new int[4];
+		StringBuilder buffer = new StringBuilder();
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int p = 0; p < passes; p++) {
+			for (String line:lines) {
+				checksum += (reference ? reference(line, mode) : scan(line, mode, bounds, buffer)).length();
+			}
+		}
+		long time = (System.nanoTime() - start) / 1000000;
+		if (checksum == 42) {
+			System.err.println();
+		}
+		return time;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = 30000;
+		int passes = 5;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n") && (i + 1 < args.length)) {
+				count = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-p") && (i + 1 < args.length)) {
+				passes = Integer.parseInt(args[++i]);
+			} else {
+				file = args[i];
+			}
+		}
+
+		List<String> lines;
+		if (file == null) {
+			lines = generate(count);
+		} else {
+			lines = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+			in.close();
+		}
+
+		List<List<String>> accepted = new ArrayList<List<String>>();
+		for (ExportMode mode:ExportMode.values()) {
+			accepted.add(compare(lines, mode));
+			System.out.println(mode + ": output identical on " + lines.size() + " lines, "
+					+ (lines.size() - accepted.get(mode.ordinal()).size()) + " rejected by both");
+		}
+
+		System.out.println("Mode" + "\t" + "Split ms" + "\t" + "Scan ms");
+		for (ExportMode mode:ExportMode.values()) {
+			List<String> timed = accepted.get(mode.ordinal());
+			// warm-up
+			time(timed, mode, true, 1);
+			time(timed, mode, false, 1);
+			System.out.println(mode + "\t" + time(timed, mode, true, passes) + "\t" + time(timed, mode, false, passes));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+
+/** Benchmark of the alignment features of GizaA3Reader: reading only the scores against reading the features as well,
+ * run as: java filter.tools.GizaA3Benchmark [-n number_of_records] [-r runs] [-j number_of_threads] [A3.final_file]
+ *
+ * Generated records are used unless a file is given. The median time of the runs is printed.
+ *
+ * @author Adam Liska
+ *
+ */
+public class GizaA3Benchmark {
+
+	static long median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = 120000;
+		int runs = 12;
+		int threads = 1;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n") && (i + 1 < args.length)) {
+				count = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-r") && (i + 1 < args.length)) {
+				runs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-j") && (i + 1 < args.length)) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				file = args[i];
+			}
+		}
+
+		if (file == null) {
+			StringBuilder content = new StringBuilder();
+			GizaA3ReaderTest.generate(new Random(5), count, content);
+			file = GizaA3ReaderTest.write(content.toString()).getPath();
+		}
+		System.out.println(file + ": " + new File(file).length() + " bytes, " + threads + " threads");
+
+		long[][] times = new long[2][runs];
+		int records = 0;
+		// warm-up
+		for (int run = 0; run < 3; run++) {
+			GizaA3Reader.read(file, threads, false);
+			GizaA3Reader.read(file, threads, true);
+		}
+		for (int run = 0; run < runs; run++) {
+			// alternating, so that both are measured under the same conditions
+			for (int features = 0; features < 2; features++) {
+				long start = System.nanoTime();
+				records = GizaA3Reader.read(file, threads, features == 1).size();
+				times[features][run] = (System.nanoTime() - start) / 1000000;
+			}
+		}
+		System.out.println(records + " records, median of " + runs + " runs");
+		System.out.println("Scores only" + "\t" + median(times[0]) + " ms");
+		System.out.println("With features" + "\t" + median(times[1]) + " ms");
+	}
+}
@@ -0,0 +1,162 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+
+/** Tests of the alignment features of GizaA3Reader, run as: java filter.tools.GizaA3ReaderTest
+ *
+ * A small fixture with features computed by hand is checked first, then random records
+ * against a direct computation of the features (all pairs of links are compared for the crossings).
+ *
+ * @author Adam Liska
+ *
+ */
+public class GizaA3ReaderTest {
+
+	/** Records in the order of the file: number, target length, alignment line, expected unaligned ratio,
+	 * maximum fertility and crossing density. */
+	static final Object[][] FIXTURE = {
+		{2, 3, "NULL ({ }) x ({ 1 2 3 }) y ({ })", 1 / 5.0, 3, 0.0},
+		{1, 4, "NULL ({ 3 }) a ({ 4 }) b ({ }) c ({ 1 2 })", 2 / 7.0, 2, 2 / 3.0},
+		{4, 4, "NULL ({ }) a ({ 4 }) b ({ 3 }) c ({ 2 }) d ({ 1 })", 0.0, 1, 1.0},
+		{3, 1, "NULL ({ }) z ({ 1 })\r", 0.0, 1, 0.0},
+		{5, 5, "NULL ({ 5 }) a ({ 2 3 }) b ({ 1 }) c ({ 4 })", 1 / 8.0, 2, 2 / 6.0},
+	};
+
+	static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	static void checkClose(double actual, double expected, String message) {
+		check(Math.abs(actual - expected) < 1e-6, message + ": " + actual + " instead of " + expected);
+	}
+
+	static String header(int number, int sourceLength, int targetLength, double score) {
+		return "# Sentence pair (" + number + ") source length " + sourceLength + " target length " + targetLength
+				+ " alignment score : " + score + "\n";
+	}
+
+	static File write(String content) throws IOException {
+		File file = File.createTempFile("giza", ".A3.final");
+		file.deleteOnExit();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), Utf8.UTF8);
+		out.write(content);
+		out.close();
+		return file;
+	}
+
+	/** Features of the fixture, read in the order of the sentence pair numbers.
+	 *
+	 */
+	static void testFixture() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (Object[] record:FIXTURE) {
+			int targetLength = (Integer) record[1];
+			content.append(header((Integer) record[0], 3, targetLength, 1e-5));
+			for (int t = 0; t < targetLength; t++) {
+				content.append((t > 0) ? " t" : "t");
+			}
+			content.append("\n" + record[2] + "\n");
+		}
+		GizaA3Reader.Alignments alignments = GizaA3Reader.read(write(content.toString()).getPath(), 1, true);
+		check(alignments.size() == FIXTURE.length, "number of records");
+		for (Object[] record:FIXTURE) {
+			int r = (Integer) record[0] - 1;
+			checkClose(alignments.unaligned[r], (Double) record[3], "unaligned ratio of pair " + (r + 1));
+			check(alignments.fertility[r] == (Integer) record[4], "fertility of pair " + (r + 1));
+			checkClose(alignments.crossing[r], (Double) record[5], "crossing density of pair " + (r + 1));
+			checkClose(alignments.scores[r], Math.log(1e-5) / (Integer) record[1], "score of pair " + (r + 1));
+		}
+		check(!GizaA3Reader.read(write(content.toString()).getPath(), 1, false).hasFeatures(), "features read without asking");
+	}
+
+	/** Generates random records.
+	 *
+	 * @param random Random numbers
+	 * @param count Number of records
+	 * @param content Buffer the records are appended to
+	 * @return Expected features of the records: unaligned ratio, maximum fertility, crossing density.
+	 */
+	static double[][] generate(Random random, int count, StringBuilder content) {
+		double[][] expected = new double[count][];
+		for (int r = 0; r < count; r++) {
+			int sourceLength = 1 + random.nextInt(40);
+			int targetLength = 1 + random.nextInt(40);
+			// every target word is aligned to one source word or to NULL (0)
+			int[] aligned = new int[targetLength + 1];
+			for (int t = 1; t <= targetLength; t++) {
+				aligned[t] = (random.nextInt(8) == 0) ? 0 : 1 + random.nextInt(sourceLength);
+			}
+
+			content.append(header(r + 1, sourceLength, targetLength, Math.pow(10, -1 - random.nextInt(50))));
+			for (int t = 0; t < targetLength; t++) {
+				content.append((t > 0) ? " w" : "w");
+			}
+			content.append("\n");
+			int maxFertility = 0;
+			int unaligned = 0;
+			ArrayList<int[]> links = new ArrayList<int[]>();
+			for (int s = 0; s <= sourceLength; s++) {
+				content.append((s == 0) ? "NULL ({ " : " s" + s + " ({ ");
+				int fertility = 0;
+				for (int t = 1; t <= targetLength; t++) {
+					if (aligned[t] == s) {
+						content.append(t + " ");
+						fertility++;
+						if (s > 0) {
+							links.add(new int[] {s, t});
+						}
+					}
+				}
+				content.append("})");
+				if (s == 0) {
+					unaligned += fertility;
+				} else {
+					maxFertility = Math.max(maxFertility, fertility);
+					if (fertility == 0) {
+						unaligned++;
+					}
+				}
+			}
+			content.append("\n");
+
+			long crossings = 0;
+			for (int a = 0; a < links.size(); a++) {
+				for (int b = a + 1; b < links.size(); b++) {
+					int[] first = links.get(a);
+					int[] second = links.get(b);
+					if ((first[0] < second[0]) && (first[1] > second[1])) {
+						crossings++;
+					}
+				}
+			}
+			long pairs = (long) links.size() * (links.size() - 1) / 2;
+			expected[r] = new double[] {(double) unaligned / (sourceLength + targetLength), maxFertility,
+					(pairs > 0) ? (double) crossings / pairs : 0};
+		}
+		return expected;
+	}
+
+	/** Features of random records, read by several threads.
+	 *
+	 */
+	static void testRandom() throws IOException {
+		StringBuilder content = new StringBuilder();
+		double[][] expected = generate(new Random(11), 5000, content);
+		GizaA3Reader.Alignments alignments = GizaA3Reader.read(write(content.toString()).getPath(), 4, true);
+		check(alignments.size() == expected.length, "number of records");
+		for (int r = 0; r < expected.length; r++) {
+			checkClose(alignments.unaligned[r], expected[r][0], "unaligned ratio of pair " + (r + 1));
+			check(alignments.fertility[r] == (int) expected[r][1], "fertility of pair " + (r + 1));
+			checkClose(alignments.crossing[r], expected[r][2], "crossing density of pair " + (r + 1));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		testFixture();
+		testRandom();
+		System.out.println("GizaA3ReaderTest OK");
+	}
+}
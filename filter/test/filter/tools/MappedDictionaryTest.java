@@ -0,0 +1,83 @@
+package filter.tools;
+
+import java.io.*;
+import java.util.*;
+
+/** Tests of the word lookup of MappedDictionary, run as: java filter.tools.MappedDictionaryTest
+ *
+ * The words are looked up without encoding them, the lookup has to find exactly the dictionary words
+ * with the same UTF-8 bytes as String.getBytes gives.
+ *
+ * @author Adam Liska
+ *
+ */
+public class MappedDictionaryTest {
+
+	/** Characters of one to four UTF-8 bytes, the highest ones of each length, and '?'. */
+	static final String[] CHARACTERS = {"a", "z", "?", "\u007f", "é", "ř", "\u07ff", "\u0800", "中", "\uffff",
+		"\uD83D\uDE00", "\uDBFF\uDFFF"};
+	/** Unpaired surrogates, encoded as '?' by String.getBytes. */
+	static final String[] UNPAIRED = {"\uD83D", "\uDE00"};
+
+	static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	static String randomWord(Random random, boolean unpaired) {
+		StringBuilder word = new StringBuilder();
+		int length = 1 + random.nextInt(4);
+		for (int i = 0; i < length; i++) {
+			if (unpaired && (random.nextInt(4) == 0)) {
+				word.append(UNPAIRED[random.nextInt(UNPAIRED.length)]);
+			} else {
+				word.append(CHARACTERS[random.nextInt(CHARACTERS.length)]);
+			}
+		}
+		return word.toString();
+	}
+
+	static byte[] stored(MappedDictionary dictionary, int entry) {
+		int from = dictionary.wordBytes + dictionary.buffer.getInt(dictionary.wordOffsets + 4 * entry);
+		int to = dictionary.wordBytes + dictionary.buffer.getInt(dictionary.wordOffsets + 4 * (entry + 1));
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = dictionary.buffer.get(from + i);
+		}
+		return bytes;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(13);
+		HashMap<String, List<String>> words = new HashMap<String, List<String>>();
+		HashSet<String> encoded = new HashSet<String>();
+		for (int w = 0; w < 3000; w++) {
+			String word = randomWord(random, false);
+			words.put(word, Arrays.asList("x"));
+			encoded.add(Arrays.toString(word.getBytes(Utf8.UTF8)));
+		}
+		File file = File.createTempFile("dictionary", ".bin");
+		file.deleteOnExit();
+		DictionaryCompiler.compile(words, file.getPath());
+		MappedDictionary dictionary = new MappedDictionary(file.getPath());
+		check(dictionary.size() == words.size(), "number of words");
+
+		for (String word:words.keySet()) {
+			int entry = dictionary.find(word);
+			check((entry >= 0) && Arrays.equals(stored(dictionary, entry), word.getBytes(Utf8.UTF8)), "word not found: " + word);
+		}
+		// words that are absent, prefixes or extensions of the dictionary words, or with unpaired surrogates
+		for (int w = 0; w < 100000; w++) {
+			String word = randomWord(random, w % 2 == 0);
+			byte[] bytes = word.getBytes(Utf8.UTF8);
+			int entry = dictionary.find(word);
+			if (encoded.contains(Arrays.toString(bytes))) {
+				check((entry >= 0) && Arrays.equals(stored(dictionary, entry), bytes), "word not found: " + word);
+			} else {
+				check(entry < 0, "word found: " + word);
+			}
+		}
+		System.out.println("MappedDictionaryTest OK");
+	}
+}
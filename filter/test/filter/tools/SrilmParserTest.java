@@ -0,0 +1,113 @@
+package filter.tools;
+
+import java.io.*;
+
+/** Tests of SrilmParser, run as: java filter.tools.SrilmParserTest
+ *
+ * @author Adam Liska
+ *
+ */
+public class SrilmParserTest {
+
+	/** Reader returning at most a few characters per read, like a pipe does.
+	 *
+	 */
+	static class ShortReader extends Reader {
+		Reader in;
+		int maxRead;
+
+		ShortReader(Reader in, int maxRead) {
+			this.in = in;
+			this.maxRead = maxRead;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			return in.read(buffer, offset, Math.min(length, maxRead));
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/** Creates SRILM output of sentences of a given length.
+	 *
+	 */
+	static String records(int sentences, int sentenceLength) {
+		StringBuilder output = new StringBuilder();
+		for (int s = 0; s < sentences; s++) {
+			for (int c = 0; c < sentenceLength; c++) {
+				output.append((c % 2 == 0) ? 'a' : ' ');
+			}
+			output.append("\n");
+			output.append("1 sentences, " + (s + 1) + " words, " + (s % 3) + " OOVs\n");
+			output.append("0 zeroprobs, logprob= -" + s + ".25 ppl= 10 ppl1= 11\n");
+			output.append("\n");
+		}
+		output.append("file test.txt: " + sentences + " sentences, 10 words, 0 OOVs\n");
+		return output.toString();
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/** Parses the records and checks their fields.
+	 *
+	 */
+	static SrilmParser parse(Reader in, int sentences) throws IOException {
+		SrilmParser srilm = new SrilmParser(in);
+		for (int s = 0; s < sentences; s++) {
+			check(srilm.next(), "missing record " + s);
+			check(srilm.getWords() == s + 1, "words of record " + s);
+			check(srilm.getOovs() == s % 3, "OOVs of record " + s);
+			check(srilm.getLogProbability() == -(s + 0.25), "logprob of record " + s);
+		}
+		check(!srilm.next(), "extra record");
+		check(srilm.hasSummary(), "missing summary");
+		check(srilm.getRecords() == sentences, "number of records");
+		return srilm;
+	}
+
+	/** Long lines read in short reads mustn't grow the buffer, the lines fit into the initial one.
+	 *
+	 */
+	static void testShortReads() throws IOException {
+		int initial = new SrilmParser(new StringReader("")).buffer.length;
+		SrilmParser srilm = parse(new ShortReader(new StringReader(records(300, 6000)), 64), 300);
+		check(srilm.buffer.length == initial, "buffer grew to " + srilm.buffer.length + " chars");
+	}
+
+	/** Lines longer than the buffer grow it to the nearest sufficient size only.
+	 *
+	 */
+	static void testLongLines() throws IOException {
+		int initial = new SrilmParser(new StringReader("")).buffer.length;
+		SrilmParser srilm = parse(new ShortReader(new StringReader(records(20, 3 * initial)), 100), 20);
+		check(srilm.buffer.length == 4 * initial, "buffer grew to " + srilm.buffer.length + " chars");
+	}
+
+	/** Malformed records are reported.
+	 *
+	 */
+	static void testMalformed() throws IOException {
+		SrilmParser srilm = new SrilmParser(new StringReader("sentence\n1 sentences, x words, 0 OOVs\n"));
+		try {
+			srilm.next();
+			check(false, "malformed record accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		testShortReads();
+		testLongLines();
+		testMalformed();
+		System.out.println("SrilmParserTest OK");
+	}
+}
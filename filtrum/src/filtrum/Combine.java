@@ -2,80 +2,356 @@ package filtrum;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** Combines multiple filter output files. 
+ * Every file is read ahead by its own thread in large blocks, which are split into lines and searched for the error field
+ * as raw bytes, the calling thread only merges the lines and writes the output. The files must have the same number of lines.
+ * With -v, verdict files of the filters are combined instead by bitwise OR of their bits, see VerdictFile.
  * 
  * @author Adam Liska
  *
  */
 public class Combine {
 	
+	/** Size of the blocks read from the files. */
+	static final int BLOCK_SIZE = 1 << 22;
+	/** Number of blocks of a file read ahead. */
+	static final int READ_AHEAD = 4;
+	/** Errors are the fields longer than this. */
+	static final int MIN_ERROR_LENGTH = 5;
+	
+	/** Lines of a block of a filter output file.
+	 * 
+	 */
+	static class Block {
+		byte[] bytes;
+		/** Start of the line, end of the sentence pair (the first two fields), start and end of the error field
+		 * of every line. The error field is empty if it isn't longer than MIN_ERROR_LENGTH characters. */
+		int[] lines;
+		int count;
+		boolean last;
+		IOException error;
+	}
+	
+	/** Filter output file read ahead by its own thread. The lines are consumed by the merging thread.
+	 * 
+	 */
+	static class Input extends Thread {
+		String file;
+		InputStream in;
+		BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(READ_AHEAD);
+		/** Block and line of the merging thread. */
+		Block block;
+		int line;
+		
+		Input(String file) throws FileNotFoundException {
+			super("read-ahead " + file);
+			this.file = file;
+			in = new FileInputStream(file);
+			setDaemon(true);
+		}
+		
+		public void run() {
+			try {
+				try {
+					byte[] rest = new byte[0];
+					boolean eof = false;
+					while (!eof) {
+						byte[] bytes = Arrays.copyOf(rest, Math.max(BLOCK_SIZE, 2 * rest.length));
+						int length = rest.length;
+						while (length < bytes.length) {
+							int read = in.read(bytes, length, bytes.length - length);
+							if (read < 0) {
+								eof = true;
+								break;
+							}
+							length += read;
+						}
+						// the block ends after the last newline, the rest is read again with the next block
+						int end = length;
+						if (!eof) {
+							while ((end > 0) && (bytes[end - 1] != '\n')) {
+								end--;
+							}
+						}
+						rest = Arrays.copyOfRange(bytes, end, length);
+						Block block = split(bytes, end);
+						block.last = eof;
+						blocks.put(block);
+					}
+					in.close();
+				} catch (IOException e) {
+					Block block = new Block();
+					block.lines = new int[0];
+					block.last = true;
+					block.error = e;
+					blocks.put(block);
+				}
+			} catch (InterruptedException e) {
+				// the merge has stopped
+			}
+		}
+		
+		/** Moves to the next line.
+		 * 
+		 * @return False at the end of the file.
+		 * @throws IOException Exception if there is an error reading the file.
+		 */
+		boolean nextLine() throws IOException {
+			line++;
+			while ((block == null) || (line >= block.count)) {
+				if ((block != null) && block.last) {
+					return false;
+				}
+				try {
+					block = blocks.take();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Interrupted while reading input!");
+				}
+				if (block.error != null) {
+					throw block.error;
+				}
+				line = 0;
+			}
+			return true;
+		}
+	}
+	
+	/** Splits a block into lines and finds the fields of the lines. Line terminators (\n or \r\n) are not included.
+	 * 
+	 * @param bytes Bytes of the block
+	 * @param length Length of the block
+	 * @return Lines of the block.
+	 */
+	static Block split(byte[] bytes, int length) {
+		Block block = new Block();
+		block.bytes = bytes;
+		block.lines = new int[4 * (length / 64 + 1)];
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			while ((end < length) && (bytes[end] != '\n')) {
+				end++;
+			}
+			int next = end + 1;
+			if ((end > start) && (bytes[end - 1] == '\r')) {
+				end--;
+			}
+			// the pair ends before the second tab, the error field follows up to the next tab
+			int tab = indexOfTab(bytes, start, end);
+			int pairEnd = (tab < end) ? indexOfTab(bytes, tab + 1, end) : end;
+			int errorStart = Math.min(pairEnd + 1, end);
+			int errorEnd = indexOfTab(bytes, errorStart, end);
+			if (countCharacters(bytes, errorStart, errorEnd) <= MIN_ERROR_LENGTH) {
+				errorEnd = errorStart;
+			}
+			if (4 * block.count == block.lines.length) {
+				block.lines = Arrays.copyOf(block.lines, 2 * block.lines.length);
+			}
+			int[] lines = block.lines;
+			lines[4 * block.count] = start;
+			lines[4 * block.count + 1] = pairEnd;
+			lines[4 * block.count + 2] = errorStart;
+			lines[4 * block.count + 3] = errorEnd;
+			block.count++;
+			start = next;
+		}
+		return block;
+	}
+	
+	private static int indexOfTab(byte[] bytes, int from, int to) {
+		while ((from < to) && (bytes[from] != '\t')) {
+			from++;
+		}
+		return from;
+	}
+	
+	/** Counts the characters of UTF-8 encoded text, the bytes which don't continue a multi-byte sequence.
+	 * 
+	 */
+	private static int countCharacters(byte[] bytes, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if ((bytes[i] & 0xc0) != 0x80) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/** Combines filter outputs of the same corpus: the sentence pairs of the first file followed by the errors
+	 * of all files, separated by |.
+	 * 
+	 * @param files Filter output file paths
+	 * @param output Output
+	 * @throws IOException Exception if there is an error reading input, or writing output.
+	 */
+	public static void combine(List<String> files, OutputStream output) throws IOException {
+		Input[] inputs = new Input[files.size()];
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = new Input(files.get(i));
+			}
+		} catch (FileNotFoundException e) {
+			for (Input input:inputs) {
+				if (input != null) {
+					input.in.close();
+				}
+			}
+			throw e;
+		}
+		for (Input input:inputs) {
+			input.start();
+		}
+		
+		byte[] newLine = System.getProperty("line.separator").getBytes("UTF-8");
+		OutputStream out = new BufferedOutputStream(output, 1 << 20);
+		try {
+			long lineNumber = 0;
+			while (true) {
+				boolean more = inputs[0].nextLine();
+				for (int i = 1; i < inputs.length; i++) {
+					if (inputs[i].nextLine() != more) {
+						throw new RuntimeException("Files " + files.get(0) + " and " + files.get(i) 
+								+ " have different numbers of lines, they differ at line " + (lineNumber + 1) + "!");
+					}
+				}
+				if (!more) {
+					break;
+				}
+				lineNumber++;
+				
+				Block block = inputs[0].block;
+				int line = 4 * inputs[0].line;
+				out.write(block.bytes, block.lines[line], block.lines[line + 1] - block.lines[line]);
+				boolean first = true;
+				for (Input input:inputs) {
+					block = input.block;
+					line = 4 * input.line;
+					if (block.lines[line + 3] > block.lines[line + 2]) {
+						out.write(first ? '\t' : '|');
+						out.write(block.bytes, block.lines[line + 2], block.lines[line + 3] - block.lines[line + 2]);
+						first = false;
+					}
+				}
+				out.write(newLine);
+			}
+			out.flush();
+		} finally {
+			for (Input input:inputs) {
+				input.interrupt();
+			}
+		}
+	}
+	
 	/** Prints help.
 	 * 
 	 */
 	public static void printHelp() {
 		System.out.println("Use:");
 		System.out.println("Combine filter_outputs_to_combine > combined_output");
+		System.out.println("Combine -v [-o combined_verdict_file] verdict_files_to_combine > counts");
+	}
+	
+	/** Combines verdict files of the same corpus and prints the number of incorrect sentence pairs
+	 * of every filter and of all of them together: filter_name \t count, the last line is combined \t count.
+	 * 
+	 * @param files Verdict file paths
+	 * @param output Combined verdict file path, null not to write it. Its filter name and error sign are those
+	 * of the filters separated by |.
+	 * @throws IOException Exception if there is an error reading input or writing output.
+	 */
+	public static void combineVerdicts(List<String> files, String output) throws IOException {
+		VerdictFile.Reader[] readers = new VerdictFile.Reader[files.size()];
+		StringBuilder names = new StringBuilder();
+		StringBuilder errorSigns = new StringBuilder();
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new VerdictFile.Reader(files.get(i));
+			if ((readers[i].getLines() != readers[0].getLines()) || (readers[i].getChecksum() != readers[0].getChecksum())) {
+				throw new RuntimeException("Verdict files " + files.get(0) + " and " + files.get(i) + " are of different corpora!");
+			}
+			if (i > 0) {
+				names.append("|");
+				errorSigns.append("|");
+			}
+			names.append(readers[i].getName());
+			errorSigns.append(readers[i].getErrorSign());
+		}
+		
+		VerdictFile.Writer writer = null;
+		if (output != null) {
+			writer = new VerdictFile.Writer(output, readers[0].getLines(), readers[0].getChecksum(), names.toString(), errorSigns.toString());
+		}
+		long[] counts = new long[readers.length];
+		long combined = 0;
+		long words = readers[0].getWords();
+		for (long w = 0; w < words; w++) {
+			long bits = 0;
+			for (int i = 0; i < readers.length; i++) {
+				long next = readers[i].next();
+				counts[i] += Long.bitCount(next);
+				bits |= next;
+			}
+			combined += Long.bitCount(bits);
+			if (writer != null) {
+				writer.add(bits);
+			}
+		}
+		for (VerdictFile.Reader reader:readers) {
+			reader.close();
+		}
+		if (writer != null) {
+			writer.close();
+		}
+		
+		for (int i = 0; i < readers.length; i++) {
+			System.out.println(readers[i].getName() + "\t" + counts[i]);
+		}
+		System.out.println("combined\t" + combined);
 	}
 	
 	/** Reads multiple files (whose paths are given as parameters) and combines errors for each
 	 * line. Output is given on the standard output.
 	 * 
-	 * @param args
+	 * @param args Filter output file paths, or -v, optional -o combined_verdict_file and verdict file paths.
 	 */
 	public static void main(String[] args) {
 		if (args.length == 0) {
 			printHelp();
 			return;
 		}
+		if (args[0].equals("-v")) {
+			String output = null;
+			List<String> files = new ArrayList<String>();
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-o") && (i + 1 < args.length)) {
+					output = args[++i];
+				} else {
+					files.add(args[i]);
+				}
+			}
+			if (files.isEmpty()) {
+				printHelp();
+				return;
+			}
+			try {
+				combineVerdicts(files, output);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new RuntimeException("Error reading input!");
+			}
+			return;
+		}
 	
-		ArrayList<BufferedReader> files = new ArrayList<BufferedReader>();
 		try {
-			for(int i = 0; i < args.length; i++) {
-				files.add(new BufferedReader(new FileReader(args[i])));
-			}			
+			combine(Arrays.asList(args), System.out);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			throw new RuntimeException("File not found!");
-		}
-		
-		String line;
-		try {
-			while((line = files.get(0).readLine()) != null) {
-				String[] split = line.split("\\t");
-				String pair = split[0] + "\t" + split[1];
-				LinkedList<String> errors = new LinkedList<String>();
-				if (split.length >= 3) {
-					if (split[2].length() > 5) {
-						errors.add(split[2]);
-					}
-				}
-				for(int i = 1; i < files.size(); i++) {
-					line = files.get(i).readLine();
-					split = line.split("\\t");
-					if (split.length >= 3) {
-						if (split[2].length() > 5) {
-							errors.add(split[2]);
-						}
-					}
-				}
-				StringBuilder result = new StringBuilder();
-				result.append(pair);
-				if (errors.size() > 0) {
-					result.append("\t");
-					for (int i = 0; i < errors.size(); i++) {
-						result.append(errors.get(i));
-						if (i < errors.size()-1) {
-							result.append("|");
-						}
-					}
-				}
-				System.out.println(result);
-			}			
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new RuntimeException("Error reading input!");
 		}
-
 	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package filtrum;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 /** Individual and combined filter statistics calculation.
@@ -10,8 +11,12 @@ import java.io.*;
  */
 public class GetStats {
 
+	/** Number of lines counted by a single task. */
+	static final int CHUNK_LINES = 10000;
+
 	BufferedReader in;
 	Statistics stats;
+	int threads;
 	
 	/** Constructor, takes a BufferedReader with the input as a parameter.
 	 *  
@@ -19,56 +24,168 @@ public class GetStats {
 	 * where errors are separated by |.
 	 */
 	public GetStats(BufferedReader in) {
+		this(in, 1);
+	}
+
+	/** Constructor, takes a BufferedReader with the input and the number of threads counting it.
+	 *
+	 * @param in BufferedReader with the input, see GetStats(BufferedReader).
+	 * @param threads Number of threads
+	 */
+	public GetStats(BufferedReader in, int threads) {
 		this.in = in;
+		this.threads = threads;
 		stats = new Statistics(); 
 	}
 		
-	/** Calculates individual and combined filter statistics from the input.
+	/** Calculates individual and combined filter statistics from the input. The input is read in chunks
+	 * which are counted in parallel into separate statistics, merged in the order of the input.
 	 * 
 	 * @return Collection of filter statistics
 	 */
 	public Collection<FilterStats> calculateFilterStats() {
-		String line;
-	
-		int i = 0;
-		int totalBadSegments = 0;
-		
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Statistics>> pending = new ArrayDeque<Future<Statistics>>();
 		try {
-			while((line = in.readLine()) != null) {
-				i++;
-				String[] fields = line.split("\\t");
-				
-				if (!fields[0].equals("x") && !fields[0].equals("ok")) {
-					throw new RuntimeException("Incorrect annotation on line: " + i + "!");
-				}				
-				if (fields[0].equals("x")) {
-					totalBadSegments++;
-				}				
-				processLine(fields);
+			int first = 1;
+			String[] lines = new String[CHUNK_LINES];
+			int count = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines[count++] = line;
+				if (count == CHUNK_LINES) {
+					pending.add(workers.submit(new Chunk(lines, count, first)));
+					first += count;
+					lines = new String[CHUNK_LINES];
+					count = 0;
+					// bounds the number of chunks in memory
+					if (pending.size() > 2 * threads) {
+						stats.merge(pending.remove().get());
+					}
+				}
+			}
+			if (count > 0) {
+				pending.add(workers.submit(new Chunk(lines, count, first)));
+			}
+			while (!pending.isEmpty()) {
+				stats.merge(pending.remove().get());
 			}
-			stats.calculateAndSetRecalls(totalBadSegments);
 		} catch (IOException e) {
 			throw new RuntimeException("Error reading input!");
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while counting!");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Error counting input!", e.getCause());
+		} finally {
+			workers.shutdownNow();
 		}
 		
 		return stats.getStats();
 	}
 
-	/** Processes input line.
-	 * 
-	 * @param fields fields of the input.
+	/** Counts a chunk of input lines into separate statistics.
+	 *
 	 */
-	private void processLine(String[] fields) {
-		if (fields.length >= 4) {
-			String[] errors = extractErrorNames(fields[3]);
-			if (fields[0].equals("x")) {
-				stats.truePositive(errors);
-			} else if (fields[0].equals("ok")) {
-				stats.falsePositive(errors);
-			}		
+	static class Chunk implements Callable<Statistics> {
+		String[] lines;
+		int count;
+		int first;
+		int[] errors = new int[16];
+
+		/** Initialises the chunk.
+		 *
+		 * @param lines Input lines
+		 * @param count Number of the lines
+		 * @param first Line number of the first line, counted from 1.
+		 */
+		Chunk(String[] lines, int count, int first) {
+			this.lines = lines;
+			this.count = count;
+			this.first = first;
+		}
+
+		public Statistics call() {
+			Statistics stats = new Statistics();
+			for (int i = 0; i < count; i++) {
+				if (!processLine(lines[i], stats)) {
+					throw new RuntimeException("Incorrect annotation on line: " + (first + i) + "!");
+				}
+			}
+			return stats;
+		}
+
+		/** Processes input line. The fields are found the same way as line.split("\\t") and the errors
+		 * as extractErrorNames finds them, without splitting the line.
+		 *
+		 * @param line Input line
+		 * @param stats Statistics to update
+		 * @return False if the annotation is incorrect.
+		 */
+		private boolean processLine(String line, Statistics stats) {
+			int length = line.length();
+			int end = line.indexOf('\t');
+			if (end < 0) {
+				end = length;
+			}
+			boolean bad;
+			if ((end == 1) && (line.charAt(0) == 'x')) {
+				bad = true;
+			} else if ((end == 2) && line.startsWith("ok")) {
+				bad = false;
+			} else {
+				return false;
+			}
+
+			// the error field is the fourth one, present only if it isn't followed by empty fields only
+			int start = end;
+			for (int field = 1; (field < 3) && (start < length); field++) {
+				start = line.indexOf('\t', start + 1);
+				if (start < 0) {
+					start = length;
+				}
+			}
+			boolean present = false;
+			for (int i = start + 1; i < length; i++) {
+				if (line.charAt(i) != '\t') {
+					present = true;
+					break;
+				}
+			}
+			int errorCount = 0;
+			if (present) {
+				start++;
+				end = line.indexOf('\t', start);
+				if (end < 0) {
+					end = length;
+				}
+				// trailing empty errors are left out, an empty field is a single empty error
+				int last = end;
+				while ((last > start) && (line.charAt(last - 1) == '|')) {
+					last--;
+				}
+				if ((last == start) && (end > start)) {
+					last = -1;
+				}
+				for (int from = start; (last >= 0) && (from <= last); ) {
+					int to = line.indexOf('|', from);
+					if ((to < 0) || (to > last)) {
+						to = last;
+					}
+					if (errorCount == errors.length) {
+						errors = Arrays.copyOf(errors, 2 * errorCount);
+					}
+					errors[errorCount++] = stats.intern(line.substring(from, to));
+					from = to + 1;
+				}
+			}
+			stats.add(bad, errors, errorCount);
+			return true;
 		}
 	}
-	
+
 	/** Extracts errors from the error field.
 	 * 
 	 * @param errorField 
@@ -98,14 +215,81 @@ public class GetStats {
 		}
 	}
 
+	/** Prints the co-firing matrix of the filters, the number of lines every two filters fired on together
+	 * (the diagonal is the number of lines a filter fired on), and the unique contribution of every filter,
+	 * the lines only the filter fired on.
+	 *
+	 */
+	public void printFilterMatrix() {
+		List<String> names = stats.getNames();
+		StringBuilder output = new StringBuilder("Co-firing");
+		for (String name:names) {
+			output.append("\t" + name);
+		}
+		System.out.println(output.toString());
+		for (String first:names) {
+			output = new StringBuilder(first);
+			for (String second:names) {
+				output.append("\t" + stats.getCoFiring(first, second));
+			}
+			System.out.println(output.toString());
+		}
+
+		System.out.println();
+		System.out.println("Filter name" + "\t" + "Unique Fired" + "\t" + "Unique True Positives" + "\t" + "Unique Recall");
+		for (String name:names) {
+			int truePositives = stats.getUniqueTruePositives(name);
+			output = new StringBuilder();
+			output.append(name + "\t");
+			output.append((truePositives + stats.getUniqueFalsePositives(name)) + "\t");
+			output.append(truePositives + "\t");
+			output.append(truePositives / (double) stats.getTotalBadSegments());
+			System.out.println(output.toString());
+		}
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("GetStats [-j number_of_threads] [-m] < annotated_corpus > statistics");
+	}
+
 	/** Takes input from the standard input and prints results on the standard output.
 	 * 
-	 * @param args Command line arguments
+	 * @param args Command line arguments: optional -j number_of_threads, optional -m to print
+	 * the co-firing matrix and the unique contributions of the filters as well.
 	 */
 	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean matrix = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-j") && (i + 1 < args.length)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-m")) {
+					matrix = true;
+				} else {
+					printHelp();
+					return;
+				}
+			}
+		} catch (NumberFormatException e) {
+			printHelp();
+			return;
+		}
+		if (threads < 1) {
+			printHelp();
+			return;
+		}
 		
-		GetStats process = new GetStats(new BufferedReader(new InputStreamReader(System.in)));
+		GetStats process = new GetStats(new BufferedReader(new InputStreamReader(System.in)), threads);
 		Collection<FilterStats> result = process.calculateFilterStats();
 		process.printFilterStats(result);
+		if (matrix) {
+			System.out.println();
+			process.printFilterMatrix();
+		}
 	}
 }
@@ -0,0 +1,97 @@
+package filtrum;
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/** Memory-mapped score file of a filter, the scores of the sentence pairs as a column of floats indexed by the line number,
+ * written by the scoring filters with -s.
+ *
+ * The file starts with a header: magic and version (ints), number of lines and the checksum of the corpus (longs,
+ * see VerdictFile.hash), the threshold of the filter (double), the filter name and the error sign of the filter
+ * (modified UTF-8, as DataOutput.writeUTF writes them), padded with zeros to a multiple of 4 bytes.
+ * The scores follow as big-endian floats, NaN for pairs correct with any threshold.
+ * The format is the same as filter.tools.ScoreFile writes.
+ *
+ * @author Adam Liska
+ *
+ */
+public class ScoreFile {
+
+	public static final int MAGIC = 0x53534346;
+	public static final int VERSION = 1;
+	/** The scores are mapped in segments of 2^SEGMENT_BITS floats. */
+	static final int SEGMENT_BITS = 28;
+
+	long lines;
+	long checksum;
+	double threshold;
+	String name;
+	String errorSign;
+	FloatBuffer[] segments;
+
+	/** Maps a score file.
+	 *
+	 * @param file Score file path
+	 * @throws IOException Exception if there is an error reading the file or it isn't a score file.
+	 */
+	public ScoreFile(String file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if ((in.length() < 8) || (in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				throw new IOException("Not a score file: " + file);
+			}
+			lines = in.readLong();
+			checksum = in.readLong();
+			threshold = in.readDouble();
+			name = in.readUTF();
+			errorSign = in.readUTF();
+			long offset = (in.getFilePointer() + 3) & ~3L;
+			if (offset + 4 * lines > in.length()) {
+				throw new IOException("Corrupted score file: " + file);
+			}
+
+			FileChannel channel = in.getChannel();
+			segments = new FloatBuffer[(int) ((lines + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS)];
+			for (int s = 0; s < segments.length; s++) {
+				long size = Math.min(1L << SEGMENT_BITS, lines - ((long) s << SEGMENT_BITS));
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (4L * s << SEGMENT_BITS), 4 * size).asFloatBuffer();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public long getLines() {
+		return lines;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/** Returns the threshold the filter used.
+	 *
+	 * @return Threshold
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getErrorSign() {
+		return errorSign;
+	}
+
+	/** Returns the score of a line.
+	 *
+	 * @param line Line number, counted from 0.
+	 * @return Score, pairs with scores lower than the threshold are incorrect.
+	 */
+	public float get(long line) {
+		return segments[(int) (line >>> SEGMENT_BITS)].get((int) (line & ((1 << SEGMENT_BITS) - 1)));
+	}
+}
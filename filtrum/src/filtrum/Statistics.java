@@ -2,67 +2,258 @@ package filtrum;
 
 import java.util.*;
 
-/** Collection of filter statistics and methods to update them. It keeps track of individual filters 
- * statistics and also of their combined statistics. 
- *  
+/** Collection of filter statistics and methods to update them. It keeps track of individual filters
+ * statistics and also of their combined statistics.
+ *
+ * The error names are interned to dense ids in the order they first occur and all counts are kept in primitive arrays
+ * indexed by the ids, so that parts of the input are counted separately (e.g. by several threads) and merged afterwards.
+ * Besides the counts of every filter, the number of lines on which two filters fire together (co-firing)
+ * and the number of lines on which a filter fires alone (its unique contribution) are counted.
+ *
  * @author Adam Liska
  *
  */
 public class Statistics {
 
-	HashMap<String, FilterStats> errorMap;
 	String combined = "combined";
-	
+	HashMap<String, Integer> ids;
+	ArrayList<String> names;
+	int[] truePositives;
+	int[] falsePositives;
+	int combinedTruePositives;
+	int combinedFalsePositives;
+	/** Lines on which both filters fired, indexed by id * capacity + id. */
+	int[] coFiring;
+	/** Lines on which only the filter fired. */
+	int[] uniqueTruePositives;
+	int[] uniqueFalsePositives;
+	int capacity;
+	/** Distinct errors of the line being counted. */
+	int[] lineErrors;
+	int totalBadSegments;
+
 	public Statistics() {
-		errorMap = new HashMap<String, FilterStats>();
-		errorMap.put(combined, new FilterStats(combined));
+		ids = new HashMap<String, Integer>();
+		names = new ArrayList<String>();
+		capacity = 8;
+		truePositives = new int[capacity];
+		falsePositives = new int[capacity];
+		coFiring = new int[capacity * capacity];
+		uniqueTruePositives = new int[capacity];
+		uniqueFalsePositives = new int[capacity];
+		lineErrors = new int[capacity];
 	}
-	
-	public void calculateAndSetRecalls(int totalBadSegments) {
-		for(FilterStats filter:errorMap.values()) {
-			filter.setRecall(totalBadSegments);
+
+	/** Returns the id of an error name, a new id for a new name.
+	 *
+	 * @param error Error name
+	 * @return Id of the error.
+	 */
+	public int intern(String error) {
+		Integer id = ids.get(error);
+		if (id != null) {
+			return id;
 		}
+		int newId = names.size();
+		if (newId == capacity) {
+			grow();
+		}
+		ids.put(error, newId);
+		names.add(error);
+		return newId;
 	}
 
-	/** Increments falsePositive property for all given errors.
-	 * 
-	 * @param errors An array of error names.
+	private void grow() {
+		int newCapacity = 2 * capacity;
+		truePositives = Arrays.copyOf(truePositives, newCapacity);
+		falsePositives = Arrays.copyOf(falsePositives, newCapacity);
+		uniqueTruePositives = Arrays.copyOf(uniqueTruePositives, newCapacity);
+		uniqueFalsePositives = Arrays.copyOf(uniqueFalsePositives, newCapacity);
+		int[] newCoFiring = new int[newCapacity * newCapacity];
+		for (int a = 0; a < capacity; a++) {
+			System.arraycopy(coFiring, a * capacity, newCoFiring, a * newCapacity, capacity);
+		}
+		coFiring = newCoFiring;
+		capacity = newCapacity;
+	}
+
+	/** Counts an annotated line and its errors.
+	 *
+	 * @param bad True for a line annotated as incorrect.
+	 * @param errors Ids of the errors (see intern), an error may occur several times.
+	 * @param count Number of the errors
 	 */
-	public void falsePositive(String[] errors) {
-		for(String error:errors) {
-			if (!errorMap.containsKey(error)) {
-				FilterStats fstat = new FilterStats(error);
-				errorMap.put(error, fstat);
+	public void add(boolean bad, int[] errors, int count) {
+		if (bad) {
+			totalBadSegments++;
+		}
+		count(bad, errors, count);
+	}
+
+	/** Counts the errors of a line.
+	 *
+	 */
+	private void count(boolean bad, int[] errors, int count) {
+		if (count == 0) {
+			return;
+		}
+		int[] counts = bad ? truePositives : falsePositives;
+		if (lineErrors.length < count) {
+			lineErrors = new int[count];
+		}
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			int error = errors[i];
+			counts[error]++;
+			boolean seen = false;
+			for (int j = 0; j < distinct; j++) {
+				if (lineErrors[j] == error) {
+					seen = true;
+					break;
+				}
+			}
+			if (!seen) {
+				lineErrors[distinct++] = error;
+			}
+		}
+		if (bad) {
+			combinedTruePositives++;
+		} else {
+			combinedFalsePositives++;
+		}
+		for (int i = 0; i < distinct; i++) {
+			for (int j = 0; j < distinct; j++) {
+				coFiring[lineErrors[i] * capacity + lineErrors[j]]++;
+			}
+		}
+		if (distinct == 1) {
+			if (bad) {
+				uniqueTruePositives[lineErrors[0]]++;
+			} else {
+				uniqueFalsePositives[lineErrors[0]]++;
 			}
-			errorMap.get(error).incFalsePositives();
 		}
-		if (errors.length > 0) {
-			errorMap.get(combined).incFalsePositives();
+	}
+
+	/** Adds the counts of another part of the input. The names of the other statistics get ids after the names
+	 * of these ones, so merging the parts in the order of the input keeps the order of the names.
+	 *
+	 * @param other Statistics of the following part of the input.
+	 */
+	public void merge(Statistics other) {
+		int[] map = new int[other.names.size()];
+		for (int i = 0; i < map.length; i++) {
+			map[i] = intern(other.names.get(i));
+		}
+		for (int i = 0; i < map.length; i++) {
+			truePositives[map[i]] += other.truePositives[i];
+			falsePositives[map[i]] += other.falsePositives[i];
+			uniqueTruePositives[map[i]] += other.uniqueTruePositives[i];
+			uniqueFalsePositives[map[i]] += other.uniqueFalsePositives[i];
+			for (int j = 0; j < map.length; j++) {
+				coFiring[map[i] * capacity + map[j]] += other.coFiring[i * other.capacity + j];
+			}
 		}
+		combinedTruePositives += other.combinedTruePositives;
+		combinedFalsePositives += other.combinedFalsePositives;
+		totalBadSegments += other.totalBadSegments;
 	}
-	
+
+	/** Sets the number of lines annotated as incorrect, if they weren't counted by add.
+	 *
+	 * @param totalBadSegments Number of incorrect lines.
+	 */
+	public void calculateAndSetRecalls(int totalBadSegments) {
+		this.totalBadSegments = totalBadSegments;
+	}
+
+	/** Increments falsePositive property for all given errors.
+	 *
+	 * @param errors An array of error names.
+	 */
+	public void falsePositive(String[] errors) {
+		count(false, errors);
+	}
+
 	/** Increments truePositive property for all given errors.
-	 * 
+	 *
 	 * @param errors An array of error names.
 	 */
 	public void truePositive(String[] errors) {
-		for(String error:errors) {
-			if (!errorMap.containsKey(error)) {
-				FilterStats fstat = new FilterStats(error);
-				errorMap.put(error, fstat);
-			}
-			errorMap.get(error).incTruePositives();
-		}
-		if (errors.length > 0) {
-			errorMap.get(combined).incTruePositives();
+		count(true, errors);
+	}
+
+	private void count(boolean bad, String[] errors) {
+		int[] errorIds = new int[errors.length];
+		for (int i = 0; i < errors.length; i++) {
+			errorIds[i] = intern(errors[i]);
 		}
+		count(bad, errorIds, errorIds.length);
+	}
+
+	/** Returns the number of lines annotated as incorrect.
+	 *
+	 * @return Number of incorrect lines.
+	 */
+	public int getTotalBadSegments() {
+		return totalBadSegments;
 	}
-	
+
+	/** Returns the error names in the order they first occurred.
+	 *
+	 * @return Error names
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/** Returns the number of lines on which both filters fired.
+	 *
+	 * @param first First error name
+	 * @param second Second error name, the same as the first one for the number of lines the filter fired on.
+	 * @return Number of lines.
+	 */
+	public int getCoFiring(String first, String second) {
+		return coFiring[ids.get(first) * capacity + ids.get(second)];
+	}
+
+	/** Returns the number of lines annotated as incorrect on which only the given filter fired.
+	 *
+	 * @param error Error name
+	 * @return Number of lines.
+	 */
+	public int getUniqueTruePositives(String error) {
+		return uniqueTruePositives[ids.get(error)];
+	}
+
+	/** Returns the number of lines annotated as correct on which only the given filter fired.
+	 *
+	 * @param error Error name
+	 * @return Number of lines.
+	 */
+	public int getUniqueFalsePositives(String error) {
+		return uniqueFalsePositives[ids.get(error)];
+	}
+
 	/** Returns the collection of filter statistics.
-	 * 
+	 *
 	 * @return Collection of filter statistics.
 	 */
 	public Collection<FilterStats> getStats() {
+		HashMap<String, FilterStats> errorMap = new HashMap<String, FilterStats>();
+		FilterStats combinedStats = new FilterStats(combined);
+		combinedStats.setTruePositives(combinedTruePositives);
+		combinedStats.setFalsePositives(combinedFalsePositives);
+		errorMap.put(combined, combinedStats);
+		for (int i = 0; i < names.size(); i++) {
+			FilterStats fstat = new FilterStats(names.get(i));
+			fstat.setTruePositives(truePositives[i]);
+			fstat.setFalsePositives(falsePositives[i]);
+			errorMap.put(names.get(i), fstat);
+		}
+		for (FilterStats filter:errorMap.values()) {
+			filter.setRecall(totalBadSegments);
+		}
 		return errorMap.values();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,270 @@
+package filtrum;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Applies thresholds to the score file of a filter without running the filter again.
+ * Many thresholds are evaluated in a single parallel pass over the memory-mapped scores: every score
+ * is counted only for the lowest threshold it is lower than, and the counts of the higher thresholds are summed afterwards.
+ * With an annotated corpus, the precision and the recall of every threshold are printed as well.
+ * A single threshold can be written out as a verdict file, see VerdictFile.
+ *
+ * @author Adam Liska
+ *
+ */
+public class Thresholds {
+
+	/** Number of lines counted by a single task. */
+	static final int CHUNK_LINES = 1 << 20;
+
+	ScoreFile scores;
+	/** Bits of the incorrect pairs of the annotated corpus, null without annotations. */
+	long[] incorrect;
+	long totalIncorrect;
+
+	/** Initialises the evaluation of a score file.
+	 *
+	 * @param scores Score file
+	 */
+	public Thresholds(ScoreFile scores) {
+		this.scores = scores;
+	}
+
+	/** Reads the annotations of the corpus the scores were computed for.
+	 *
+	 * @param in Annotated corpus in the format: annotation \t firstLang_segment \t secondLang_segment ...,
+	 * where annotation is x for incorrect pairs and ok for correct ones.
+	 * @throws IOException Exception if there is an error reading input.
+	 */
+	public void readAnnotations(BufferedReader in) throws IOException {
+		incorrect = new long[(int) ((scores.getLines() + 63) / 64)];
+		totalIncorrect = 0;
+		long checksum = VerdictFile.EMPTY_CHECKSUM;
+		long i = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] fields = line.split("\\t", -1);
+			if ((fields.length < 3) || (!fields[0].equals("x") && !fields[0].equals("ok"))) {
+				throw new RuntimeException("Incorrect annotation on line: " + (i + 1) + "!");
+			}
+			if (i >= scores.getLines()) {
+				throw new RuntimeException("Annotated corpus is longer than the score file!");
+			}
+			if (fields[0].equals("x")) {
+				incorrect[(int) (i >>> 6)] |= 1L << i;
+				totalIncorrect++;
+			}
+			checksum = VerdictFile.hash(checksum, fields[1] + "\t" + fields[2]);
+			i++;
+		}
+		if ((i != scores.getLines()) || (checksum != scores.getChecksum())) {
+			throw new RuntimeException("Annotated corpus doesn't match the score file!");
+		}
+	}
+
+	/** Counts the pairs whose scores are lower than the thresholds.
+	 *
+	 * @param thresholds Thresholds, sorted in ascending order.
+	 * @param threads Number of threads
+	 * @return Number of incorrect pairs for every threshold, followed by the number of those annotated as incorrect
+	 * if the annotations were read.
+	 * @throws IOException Exception if the counting fails.
+	 */
+	public long[] count(final double[] thresholds, int threads) throws IOException {
+		long lines = scores.getLines();
+		List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+		for (long from = 0; from < lines; from += CHUNK_LINES) {
+			final long start = from;
+			final long end = Math.min(lines, from + CHUNK_LINES);
+			tasks.add(new Callable<long[]>() {
+				public long[] call() {
+					return count(thresholds, start, end);
+				}
+			});
+		}
+
+		long[] counts = new long[2 * thresholds.length];
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<long[]> result:workers.invokeAll(tasks)) {
+				long[] partial = result.get();
+				for (int t = 0; t < counts.length; t++) {
+					counts[t] += partial[t];
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while counting!");
+		} catch (ExecutionException e) {
+			throw new IOException("Error counting scores!", e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+
+		// a pair counted for a threshold is incorrect with all higher thresholds too
+		for (int t = 1; t < thresholds.length; t++) {
+			counts[t] += counts[t - 1];
+			counts[thresholds.length + t] += counts[thresholds.length + t - 1];
+		}
+		return counts;
+	}
+
+	/** Counts a range of lines for the lowest threshold they are incorrect with.
+	 *
+	 */
+	private long[] count(double[] thresholds, long start, long end) {
+		long[] counts = new long[2 * thresholds.length];
+		for (long line = start; line < end; line++) {
+			float score = scores.get(line);
+			if (Float.isNaN(score)) {
+				continue;
+			}
+			// first threshold higher than the score
+			int low = 0;
+			int high = thresholds.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (thresholds[middle] > score) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			if (low < thresholds.length) {
+				counts[low]++;
+				if ((incorrect != null) && ((incorrect[(int) (line >>> 6)] & (1L << line)) != 0)) {
+					counts[thresholds.length + low]++;
+				}
+			}
+		}
+		return counts;
+	}
+
+	/** Writes the verdicts of a threshold.
+	 *
+	 * @param threshold Threshold
+	 * @param file Verdict file path
+	 * @throws IOException Exception if there is an error writing the file.
+	 */
+	public void writeVerdicts(double threshold, String file) throws IOException {
+		long lines = scores.getLines();
+		VerdictFile.Writer writer = new VerdictFile.Writer(file, lines, scores.getChecksum(), scores.getName(), scores.getErrorSign());
+		for (long from = 0; from < lines; from += 64) {
+			long bits = 0;
+			for (int i = 0; (i < 64) && (from + i < lines); i++) {
+				if (scores.get(from + i) < threshold) {
+					bits |= 1L << i;
+				}
+			}
+			writer.add(bits);
+		}
+		writer.close();
+	}
+
+	/** Prints the counts of the thresholds.
+	 *
+	 * @param thresholds Thresholds, sorted in ascending order.
+	 * @param counts Counts returned by count.
+	 */
+	public void printCounts(double[] thresholds, long[] counts) {
+		if (incorrect == null) {
+			System.out.println("Threshold" + "\t" + "Times Fired");
+		} else {
+			System.out.println("Threshold" + "\t" + "Times Fired" + "\t" + "Precision" + "\t" + "Recall");
+		}
+		for (int t = 0; t < thresholds.length; t++) {
+			StringBuilder output = new StringBuilder();
+			output.append(thresholds[t] + "\t");
+			output.append(counts[t]);
+			if (incorrect != null) {
+				long truePositives = counts[thresholds.length + t];
+				output.append("\t" + (truePositives / (double) counts[t]));
+				output.append("\t" + (truePositives / (double) totalIncorrect));
+			}
+			System.out.println(output.toString());
+		}
+	}
+
+	/** Prints help.
+	 *
+	 */
+	public static void printHelp() {
+		System.out.println("Use:");
+		System.out.println("Thresholds [-j number_of_threads] [-a annotated_corpus] score_file [threshold ...] > counts");
+		System.out.println("Thresholds [-j number_of_threads] [-a annotated_corpus] score_file -r from to step > counts");
+		System.out.println("Thresholds score_file [threshold] -o verdict_file");
+	}
+
+	/** Counts the incorrect pairs of the thresholds, or writes the verdict file of a threshold.
+	 *
+	 * @param args Command line arguments: score file path and thresholds (the threshold of the filter by default),
+	 * or -r from to step for a range of thresholds. Optional -j number_of_threads, optional -a annotated_corpus
+	 * (the corpus the scores were computed for, in the format of GetStats input) for precision and recall,
+	 * optional -o verdict_file to write the verdicts of a single threshold instead.
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String annotations = null;
+		String output = null;
+		String file = null;
+		ArrayList<Double> values = new ArrayList<Double>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-j") && (i + 1 < args.length)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-a") && (i + 1 < args.length)) {
+					annotations = args[++i];
+				} else if (args[i].equals("-o") && (i + 1 < args.length)) {
+					output = args[++i];
+				} else if (args[i].equals("-r") && (i + 3 < args.length)) {
+					double from = Double.parseDouble(args[++i]);
+					double to = Double.parseDouble(args[++i]);
+					double step = Double.parseDouble(args[++i]);
+					if (step <= 0) {
+						printHelp();
+						return;
+					}
+					for (long k = 0; from + k * step <= to + step / 1e6; k++) {
+						values.add(from + k * step);
+					}
+				} else if (file == null) {
+					file = args[i];
+				} else {
+					values.add(Double.parseDouble(args[i]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			printHelp();
+			return;
+		}
+		if ((file == null) || (threads < 1) || ((output != null) && (values.size() > 1))) {
+			printHelp();
+			return;
+		}
+
+		try {
+			Thresholds thresholds = new Thresholds(new ScoreFile(file));
+			if (values.isEmpty()) {
+				values.add(thresholds.scores.getThreshold());
+			}
+			if (output != null) {
+				thresholds.writeVerdicts(values.get(0), output);
+				return;
+			}
+			if (annotations != null) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(annotations), "UTF-8"));
+				thresholds.readAnnotations(in);
+				in.close();
+			}
+			Collections.sort(values);
+			double[] sorted = new double[values.size()];
+			for (int t = 0; t < sorted.length; t++) {
+				sorted[t] = values.get(t);
+			}
+			thresholds.printCounts(sorted, thresholds.count(sorted, threads));
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Error reading input!");
+		}
+	}
+}
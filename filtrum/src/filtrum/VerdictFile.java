@@ -0,0 +1,141 @@
+package filtrum;
+
+import java.io.*;
+
+/** Verdict file of a filter, written by the filters with -v instead of the corpus copy with error signs.
+ * It holds one bit per corpus line, set for incorrect sentence pairs.
+ *
+ * The file starts with a header: magic and version (ints), number of lines and the checksum of the corpus (longs),
+ * the filter name and the error sign of the filter (modified UTF-8, as DataOutput.writeUTF writes them).
+ * The bits follow as longs, line i is bit i % 64 of long i / 64. The format is the same as filter.tools.VerdictFile writes.
+ *
+ * @author Adam Liska
+ *
+ */
+public class VerdictFile {
+
+	public static final int MAGIC = 0x53564446;
+	public static final int VERSION = 1;
+	/** Checksum of an empty corpus. */
+	public static final long EMPTY_CHECKSUM = 0xcbf29ce484222325L;
+	static final long PRIME = 0x100000001b3L;
+
+	/** Adds a sentence pair to the checksum of a corpus, the 64-bit FNV-1a hash of the plain sentence pairs
+	 * (firstLang_segment \t secondLang_segment \n).
+	 *
+	 * @param checksum Checksum of the previous sentence pairs.
+	 * @param pair Plain sentence pair: firstLang_segment \t secondLang_segment
+	 * @return Checksum including the pair.
+	 */
+	public static long hash(long checksum, String pair) {
+		int length = pair.length();
+		for (int i = 0; i < length; i++) {
+			checksum = (checksum ^ pair.charAt(i)) * PRIME;
+		}
+		return (checksum ^ '\n') * PRIME;
+	}
+
+	/** Reads the bits of a verdict file long by long.
+	 *
+	 */
+	public static class Reader {
+		DataInputStream in;
+		long lines;
+		long checksum;
+		String name;
+		String errorSign;
+
+		/** Opens a verdict file and reads its header.
+		 *
+		 * @param file Verdict file path
+		 * @throws IOException Exception if there is an error reading the file or it isn't a verdict file.
+		 */
+		public Reader(String file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				in.close();
+				throw new IOException("Not a verdict file: " + file);
+			}
+			lines = in.readLong();
+			checksum = in.readLong();
+			name = in.readUTF();
+			errorSign = in.readUTF();
+		}
+
+		public long getLines() {
+			return lines;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getErrorSign() {
+			return errorSign;
+		}
+
+		/** Returns the number of longs holding the bits.
+		 *
+		 * @return Number of longs.
+		 */
+		public long getWords() {
+			return (lines + 63) / 64;
+		}
+
+		/** Reads the next 64 verdicts.
+		 *
+		 * @return Bits of the lines, set for incorrect sentence pairs.
+		 * @throws IOException Exception if there is an error reading the file.
+		 */
+		public long next() throws IOException {
+			return in.readLong();
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/** Writes verdicts 64 lines at a time.
+	 *
+	 */
+	public static class Writer {
+		DataOutputStream out;
+
+		/** Creates a verdict file.
+		 *
+		 * @param file Verdict file path
+		 * @param lines Number of lines
+		 * @param checksum Checksum of the corpus
+		 * @param name Filter name
+		 * @param errorSign Error sign
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public Writer(String file, long lines, long checksum, String name, String errorSign) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(lines);
+			out.writeLong(checksum);
+			out.writeUTF(name);
+			out.writeUTF(errorSign);
+		}
+
+		/** Writes the next 64 verdicts.
+		 *
+		 * @param bits Bits of the lines, set for incorrect sentence pairs.
+		 * @throws IOException Exception if there is an error writing the file.
+		 */
+		public void add(long bits) throws IOException {
+			out.writeLong(bits);
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}